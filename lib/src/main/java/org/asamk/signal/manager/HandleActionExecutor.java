@@ -0,0 +1,160 @@
+package org.asamk.signal.manager;
+
+import org.asamk.signal.manager.actions.HandleAction;
+import org.asamk.signal.manager.actions.RenewSessionAction;
+import org.asamk.signal.manager.actions.RetrieveProfileAction;
+import org.asamk.signal.manager.actions.SendGroupInfoAction;
+import org.asamk.signal.manager.actions.SendGroupInfoRequestAction;
+import org.asamk.signal.manager.actions.SendReceiptAction;
+import org.asamk.signal.manager.actions.SendRetryMessageRequestAction;
+import org.asamk.signal.manager.jobs.Context;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the actions queued while handling received messages on a bounded thread pool.
+ * <p>
+ * Actions for the same recipient are run one at a time, in the order they were enqueued, so e.g. a session renewal
+ * and a receipt for that recipient don't race. On top of that, actions of the same type share a concurrency limit.
+ * Actions that only affect a single recipient may run in parallel for different recipients, all other actions
+ * (syncs, storage, pre keys) are run one at a time. An action that is equal to one that's still waiting is dropped.
+ */
+public class HandleActionExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger(HandleActionExecutor.class);
+
+    private final static int THREAD_COUNT = 4;
+    private final static int RECIPIENT_ACTION_CONCURRENCY = 4;
+    private final static Map<Class<? extends HandleAction>, Integer> CONCURRENCY_LIMITS = Map.of(
+            SendReceiptAction.class,
+            RECIPIENT_ACTION_CONCURRENCY,
+            RenewSessionAction.class,
+            RECIPIENT_ACTION_CONCURRENCY,
+            SendGroupInfoAction.class,
+            RECIPIENT_ACTION_CONCURRENCY,
+            SendGroupInfoRequestAction.class,
+            RECIPIENT_ACTION_CONCURRENCY,
+            SendRetryMessageRequestAction.class,
+            RECIPIENT_ACTION_CONCURRENCY);
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    // Waiting actions, in the order they were enqueued
+    private final Set<HandleAction> pending = new LinkedHashSet<>();
+    private final Map<Class<? extends HandleAction>, Integer> runningByType = new HashMap<>();
+    private final Set<RecipientId> runningRecipients = new HashSet<>();
+    private int pendingCount = 0;
+
+    public HandleActionExecutor(final Context context) {
+        this.context = context;
+        this.executor = new ThreadPoolExecutor(THREAD_COUNT,
+                THREAD_COUNT,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules the actions for execution and returns immediately.
+     */
+    public void enqueueActions(Collection<HandleAction> actions) {
+        final var mergedActions = RetrieveProfileAction.mergeRequests(SendReceiptAction.mergeReceipts(actions));
+        synchronized (pending) {
+            for (var action : mergedActions) {
+                if (pending.add(action)) {
+                    pendingCount++;
+                }
+            }
+            startRunnableActionsLocked();
+        }
+    }
+
+    /**
+     * Blocks until all previously enqueued actions have finished.
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (pending) {
+            while (pendingCount > 0) {
+                pending.wait();
+            }
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void startRunnableActionsLocked() {
+        // Recipients with an earlier waiting action, their later actions have to wait as well to keep the order
+        final var waitingRecipients = new HashSet<RecipientId>();
+        final var iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final var action = iterator.next();
+            final var recipientId = action.getRecipientId();
+            final var type = action.getClass();
+            final int running = runningByType.getOrDefault(type, 0);
+            final var recipientBusy = recipientId != null && (
+                    runningRecipients.contains(recipientId) || waitingRecipients.contains(recipientId)
+            );
+            if (recipientBusy || running >= CONCURRENCY_LIMITS.getOrDefault(type, 1)) {
+                if (recipientId != null) {
+                    waitingRecipients.add(recipientId);
+                }
+                continue;
+            }
+
+            try {
+                executor.execute(() -> run(action));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Message action executor is shut down, dropping {} actions", pending.size());
+                pendingCount -= pending.size();
+                pending.clear();
+                break;
+            }
+            iterator.remove();
+            runningByType.put(type, running + 1);
+            if (recipientId != null) {
+                runningRecipients.add(recipientId);
+            }
+        }
+
+        if (pendingCount == 0) {
+            pending.notifyAll();
+        }
+    }
+
+    private void run(HandleAction action) {
+        try {
+            action.execute(context);
+        } catch (Throwable e) {
+            if ((e instanceof AssertionError || e instanceof RuntimeException)
+                    && e.getCause() instanceof InterruptedException) {
+                logger.debug("Message action was interrupted.");
+            } else {
+                logger.warn("Message action failed.", e);
+            }
+        } finally {
+            synchronized (pending) {
+                runningByType.merge(action.getClass(), -1, Integer::sum);
+                if (action.getRecipientId() != null) {
+                    runningRecipients.remove(action.getRecipientId());
+                }
+                pendingCount--;
+                startRunnableActionsLocked();
+            }
+        }
+    }
+}
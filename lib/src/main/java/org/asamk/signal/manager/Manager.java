@@ -19,7 +19,9 @@ import org.asamk.signal.manager.groups.GroupSendingNotAllowedException;
 import org.asamk.signal.manager.groups.LastGroupAdminException;
 import org.asamk.signal.manager.groups.NotAGroupMemberException;
 import org.asamk.signal.manager.storage.SignalAccount;
+import org.asamk.signal.manager.storage.groups.GroupSummary;
 import org.asamk.signal.manager.storage.identities.TrustNewIdentity;
+import org.asamk.signal.manager.storage.messageCache.PendingMessageStore;
 import org.asamk.signal.manager.storage.recipients.Contact;
 import org.asamk.signal.manager.storage.recipients.Profile;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
@@ -127,6 +129,14 @@ public interface Manager extends Closeable {
 
     List<Group> getGroups();
 
+    /**
+     * Lists the groups with their title, membership, blocked status and revision, which is much cheaper than
+     * {@link #getGroups()} for many large groups.
+     */
+    List<GroupSummary> getGroupSummaries();
+
+    List<GroupId> getGroupIds();
+
     SendGroupMessageResults quitGroup(
             GroupId groupId, Set<RecipientIdentifier.Single> groupAdmins
     ) throws GroupNotFoundException, IOException, NotAGroupMemberException, LastGroupAdminException;
@@ -222,6 +232,11 @@ public interface Manager extends Closeable {
 
     File getAttachmentFile(SignalServiceAttachmentRemoteId attachmentId);
 
+    /**
+     * Returns the store for received messages, which are kept until a client acknowledges them.
+     */
+    PendingMessageStore getPendingMessageStore();
+
     void sendContacts() throws IOException;
 
     List<Pair<RecipientAddress, Contact>> getContacts();
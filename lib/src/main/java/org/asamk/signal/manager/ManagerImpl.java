@@ -36,6 +36,7 @@ import org.asamk.signal.manager.groups.GroupSendingNotAllowedException;
 import org.asamk.signal.manager.groups.LastGroupAdminException;
 import org.asamk.signal.manager.groups.NotAGroupMemberException;
 import org.asamk.signal.manager.helper.AttachmentHelper;
+import org.asamk.signal.manager.helper.CdsHelper;
 import org.asamk.signal.manager.helper.ContactHelper;
 import org.asamk.signal.manager.helper.GroupHelper;
 import org.asamk.signal.manager.helper.GroupV2Helper;
@@ -43,6 +44,7 @@ import org.asamk.signal.manager.helper.IncomingMessageHandler;
 import org.asamk.signal.manager.helper.PinHelper;
 import org.asamk.signal.manager.helper.PreKeyHelper;
 import org.asamk.signal.manager.helper.ProfileHelper;
+import org.asamk.signal.manager.helper.RecipientCache;
 import org.asamk.signal.manager.helper.SendHelper;
 import org.asamk.signal.manager.helper.StorageHelper;
 import org.asamk.signal.manager.helper.SyncHelper;
@@ -50,8 +52,10 @@ import org.asamk.signal.manager.helper.UnidentifiedAccessHelper;
 import org.asamk.signal.manager.jobs.Context;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfo;
+import org.asamk.signal.manager.storage.groups.GroupSummary;
 import org.asamk.signal.manager.storage.identities.IdentityInfo;
 import org.asamk.signal.manager.storage.messageCache.CachedMessage;
+import org.asamk.signal.manager.storage.messageCache.PendingMessageStore;
 import org.asamk.signal.manager.storage.recipients.Contact;
 import org.asamk.signal.manager.storage.recipients.Profile;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
@@ -61,6 +65,8 @@ import org.asamk.signal.manager.storage.stickers.StickerPackId;
 import org.asamk.signal.manager.util.KeyUtils;
 import org.asamk.signal.manager.util.StickerUtils;
 import org.asamk.signal.manager.util.Utils;
+import org.signal.libsignal.metadata.certificate.InvalidCertificateException;
+import org.signal.libsignal.metadata.certificate.SenderCertificate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.libsignal.IdentityKey;
@@ -85,8 +91,6 @@ import org.whispersystems.signalservice.api.util.DeviceNameUtil;
 import org.whispersystems.signalservice.api.util.InvalidNumberException;
 import org.whispersystems.signalservice.api.util.PhoneNumberFormatter;
 import org.whispersystems.signalservice.api.websocket.WebSocketUnavailableException;
-import org.whispersystems.signalservice.internal.contacts.crypto.Quote;
-import org.whispersystems.signalservice.internal.contacts.crypto.UnauthenticatedQuoteException;
 import org.whispersystems.signalservice.internal.contacts.crypto.UnauthenticatedResponseException;
 import org.whispersystems.signalservice.internal.util.DynamicCredentialsProvider;
 import org.whispersystems.signalservice.internal.util.Hex;
@@ -98,7 +102,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.security.SignatureException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
@@ -122,6 +125,9 @@ public class ManagerImpl implements Manager {
 
     private final static Logger logger = LoggerFactory.getLogger(ManagerImpl.class);
 
+    // Cached sender certificates are replaced well before they expire, as group send plans reuse them for a while
+    private final static long SENDER_CERTIFICATE_EXPIRATION_BUFFER = 2 * 60 * 60 * 1000;
+
     private final ServiceEnvironmentConfig serviceEnvironmentConfig;
     private final SignalDependencies dependencies;
 
@@ -139,9 +145,17 @@ public class ManagerImpl implements Manager {
     private final ContactHelper contactHelper;
     private final IncomingMessageHandler incomingMessageHandler;
     private final PreKeyHelper preKeyHelper;
+    private final CdsHelper cdsHelper;
+    private final RecipientCache recipientCache = new RecipientCache();
 
     private final Context context;
+    private final HandleActionExecutor handleActionExecutor;
     private boolean hasCaughtUpWithOldMessages = false;
+    private boolean groupCacheWarmedUp = false;
+
+    private byte[] senderCertificate;
+    private boolean senderCertificatePhoneNumberShared;
+    private long senderCertificateRefreshTime;
 
     ManagerImpl(
             SignalAccount account,
@@ -171,6 +185,7 @@ public class ManagerImpl implements Manager {
                 account.getSignalProtocolStore(),
                 executor,
                 sessionLock);
+        this.cdsHelper = new CdsHelper(account, dependencies, serviceEnvironmentConfig, executor);
         final var avatarStore = new AvatarStore(pathConfig.getAvatarsPath());
         final var attachmentStore = new AttachmentStore(pathConfig.getAttachmentsPath());
         final var stickerPackStore = new StickerPackStore(pathConfig.getStickerPacksPath());
@@ -187,7 +202,7 @@ public class ManagerImpl implements Manager {
                 account.getProfileStore()::getProfileKey,
                 unidentifiedAccessHelper::getAccessFor,
                 this::resolveSignalServiceAddress);
-        final GroupV2Helper groupV2Helper = new GroupV2Helper(profileHelper::getRecipientProfileKeyCredential,
+        final GroupV2Helper groupV2Helper = new GroupV2Helper(profileHelper::getRecipientProfileKeyCredentials,
                 this::getRecipientProfile,
                 account::getSelfRecipientId,
                 dependencies.getGroupsV2Operations(),
@@ -209,15 +224,17 @@ public class ManagerImpl implements Manager {
                 avatarStore,
                 this::resolveSignalServiceAddress,
                 account.getRecipientStore());
-        this.storageHelper = new StorageHelper(account, dependencies, groupHelper, profileHelper);
+        this.storageHelper = new StorageHelper(account, dependencies, groupHelper, profileHelper, executor);
         this.contactHelper = new ContactHelper(account);
+        account.getRecipientStore().addChangeListener(recipientCache);
+        account.getRecipientStore().addChangeListener(sendHelper);
         this.syncHelper = new SyncHelper(account,
                 attachmentHelper,
                 sendHelper,
                 groupHelper,
                 avatarStore,
                 this::resolveSignalServiceAddress);
-        preKeyHelper = new PreKeyHelper(account, dependencies);
+        preKeyHelper = new PreKeyHelper(account, dependencies, executor);
 
         this.context = new Context(account,
                 dependencies,
@@ -229,6 +246,7 @@ public class ManagerImpl implements Manager {
                 storageHelper,
                 preKeyHelper);
         var jobExecutor = new JobExecutor(context);
+        this.handleActionExecutor = new HandleActionExecutor(context);
 
         this.incomingMessageHandler = new IncomingMessageHandler(account,
                 dependencies,
@@ -285,7 +303,7 @@ public class ManagerImpl implements Manager {
         }));
 
         // Note "registeredUsers" has no optionals. It only gives us info on users who are registered
-        var registeredUsers = getRegisteredUsers(canonicalizedNumbers.values()
+        var registeredUsers = cdsHelper.getRegisteredUsers(canonicalizedNumbers.values()
                 .stream()
                 .filter(s -> !s.isEmpty())
                 .collect(Collectors.toSet()));
@@ -479,6 +497,16 @@ public class ManagerImpl implements Manager {
         return account.getGroupStore().getGroups().stream().map(this::toGroup).collect(Collectors.toList());
     }
 
+    @Override
+    public List<GroupSummary> getGroupSummaries() {
+        return account.getGroupStore().getGroupSummaries();
+    }
+
+    @Override
+    public List<GroupId> getGroupIds() {
+        return account.getGroupStore().getGroupIds();
+    }
+
     private Group toGroup(final GroupInfo groupInfo) {
         if (groupInfo == null) {
             return null;
@@ -793,10 +821,17 @@ public class ManagerImpl implements Manager {
         }
     }
 
-    private byte[] getSenderCertificate() {
+    private synchronized byte[] getSenderCertificate() {
+        final var isPhoneNumberShared = account.isPhoneNumberShared();
+        if (senderCertificate != null
+                && senderCertificatePhoneNumberShared == isPhoneNumberShared
+                && System.currentTimeMillis() < senderCertificateRefreshTime) {
+            return senderCertificate;
+        }
+
         byte[] certificate;
         try {
-            if (account.isPhoneNumberShared()) {
+            if (isPhoneNumberShared) {
                 certificate = dependencies.getAccountManager().getSenderCertificate();
             } else {
                 certificate = dependencies.getAccountManager().getSenderCertificateForPhoneNumberPrivacy();
@@ -805,7 +840,15 @@ public class ManagerImpl implements Manager {
             logger.warn("Failed to get sender certificate, ignoring: {}", e.getMessage());
             return null;
         }
-        // TODO cache for a day
+        try {
+            final var expiration = new SenderCertificate(certificate).getExpiration();
+            senderCertificateRefreshTime = expiration - SENDER_CERTIFICATE_EXPIRATION_BUFFER;
+        } catch (InvalidCertificateException e) {
+            logger.warn("Received invalid sender certificate, not caching it: {}", e.getMessage());
+            senderCertificateRefreshTime = 0;
+        }
+        senderCertificate = certificate;
+        senderCertificatePhoneNumberShared = isPhoneNumberShared;
         return certificate;
     }
 
@@ -815,39 +858,12 @@ public class ManagerImpl implements Manager {
             return recipientId;
         }
         final var number = address.getNumber().get();
-        final var uuid = getRegisteredUser(number);
+        final var uuid = cdsHelper.refreshRegisteredUser(number);
         return resolveRecipientTrusted(new SignalServiceAddress(uuid, number));
     }
 
     private UUID getRegisteredUser(final String number) throws IOException {
-        final Map<String, UUID> uuidMap;
-        try {
-            uuidMap = getRegisteredUsers(Set.of(number));
-        } catch (NumberFormatException e) {
-            throw new UnregisteredUserException(number, e);
-        }
-        final var uuid = uuidMap.get(number);
-        if (uuid == null) {
-            throw new UnregisteredUserException(number, null);
-        }
-        return uuid;
-    }
-
-    private Map<String, UUID> getRegisteredUsers(final Set<String> numbers) throws IOException {
-        final Map<String, UUID> registeredUsers;
-        try {
-            registeredUsers = dependencies.getAccountManager()
-                    .getRegisteredUsers(ServiceConfig.getIasKeyStore(),
-                            numbers,
-                            serviceEnvironmentConfig.getCdsMrenclave());
-        } catch (Quote.InvalidQuoteFormatException | UnauthenticatedQuoteException | SignatureException | UnauthenticatedResponseException | InvalidKeyException e) {
-            throw new IOException(e);
-        }
-
-        // Store numbers as recipients so we have the number/uuid association
-        registeredUsers.forEach((number, uuid) -> resolveRecipientTrusted(new SignalServiceAddress(uuid, number)));
-
-        return registeredUsers;
+        return cdsHelper.getRegisteredUser(number);
     }
 
     private void retryFailedReceivedMessages(ReceiveMessageHandler handler, boolean ignoreAttachments) {
@@ -905,6 +921,11 @@ public class ManagerImpl implements Manager {
             boolean ignoreAttachments,
             ReceiveMessageHandler handler
     ) throws IOException {
+        if (!groupCacheWarmedUp) {
+            // Incoming group messages need the decrypted groups, so load them in the background
+            groupCacheWarmedUp = true;
+            account.getGroupStore().warmUpGroupCache(executor);
+        }
         retryFailedReceivedMessages(handler, ignoreAttachments);
 
         Set<HandleAction> queuedActions = new HashSet<>();
@@ -913,14 +934,26 @@ public class ManagerImpl implements Manager {
         signalWebSocket.connect();
 
         hasCaughtUpWithOldMessages = false;
+        // Actions queued while live receiving are delayed briefly, so receipts for bursts of messages can be merged
+        var queuedActionsFlushTime = 0L;
 
         while (!Thread.interrupted()) {
             SignalServiceEnvelope envelope;
             final CachedMessage[] cachedMessage = {null};
             account.setLastReceiveTimestamp(System.currentTimeMillis());
             logger.debug("Checking for new message from server");
+            var readTimeout = unit.toMillis(timeout);
+            // The read only waits until the queued actions need to be flushed
+            var isFlushTimeout = false;
+            if (hasCaughtUpWithOldMessages && !queuedActions.isEmpty()) {
+                final var flushTimeout = Math.max(1, queuedActionsFlushTime - System.currentTimeMillis());
+                if (flushTimeout < readTimeout) {
+                    readTimeout = flushTimeout;
+                    isFlushTimeout = true;
+                }
+            }
             try {
-                var result = signalWebSocket.readOrEmpty(unit.toMillis(timeout), envelope1 -> {
+                var result = signalWebSocket.readOrEmpty(readTimeout, envelope1 -> {
                     final var recipientId = envelope1.hasSourceUuid()
                             ? resolveRecipient(envelope1.getSourceAddress())
                             : null;
@@ -955,16 +988,24 @@ public class ManagerImpl implements Manager {
                 signalWebSocket.connect();
                 continue;
             } catch (TimeoutException e) {
-                if (returnOnTimeout) return;
+                if (!queuedActions.isEmpty()) {
+                    handleQueuedActions(queuedActions);
+                    queuedActions.clear();
+                }
+                if (returnOnTimeout && !isFlushTimeout) return;
                 continue;
             }
 
             final var result = incomingMessageHandler.handleEnvelope(envelope, ignoreAttachments, handler);
+            if (queuedActions.isEmpty()) {
+                queuedActionsFlushTime = System.currentTimeMillis() + ServiceConfig.QUEUED_ACTIONS_FLUSH_DELAY;
+            }
             queuedActions.addAll(result.first());
             final var exception = result.second();
 
-            if (hasCaughtUpWithOldMessages) {
+            if (hasCaughtUpWithOldMessages && System.currentTimeMillis() >= queuedActionsFlushTime) {
                 handleQueuedActions(queuedActions);
+                queuedActions.clear();
             }
             if (cachedMessage[0] != null) {
                 if (exception instanceof UntrustedIdentityException) {
@@ -984,6 +1025,11 @@ public class ManagerImpl implements Manager {
             }
         }
         handleQueuedActions(queuedActions);
+        try {
+            handleActionExecutor.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -992,22 +1038,8 @@ public class ManagerImpl implements Manager {
     }
 
     private void handleQueuedActions(final Collection<HandleAction> queuedActions) {
-        var interrupted = false;
-        for (var action : queuedActions) {
-            try {
-                action.execute(context);
-            } catch (Throwable e) {
-                if ((e instanceof AssertionError || e instanceof RuntimeException)
-                        && e.getCause() instanceof InterruptedException) {
-                    interrupted = true;
-                    continue;
-                }
-                logger.warn("Message action failed.", e);
-            }
-        }
-        if (interrupted) {
-            Thread.currentThread().interrupt();
-        }
+        // Actions are run in the background, so receiving doesn't have to wait for slow network requests
+        handleActionExecutor.enqueueActions(queuedActions);
     }
 
     @Override
@@ -1026,6 +1058,11 @@ public class ManagerImpl implements Manager {
         return attachmentHelper.getAttachmentFile(attachmentId);
     }
 
+    @Override
+    public PendingMessageStore getPendingMessageStore() {
+        return account.getPendingMessageStore();
+    }
+
     @Override
     public void sendContacts() throws IOException {
         syncHelper.sendContacts();
@@ -1042,13 +1079,18 @@ public class ManagerImpl implements Manager {
 
     @Override
     public String getContactOrProfileName(RecipientIdentifier.Single recipient) {
-        final RecipientId recipientId;
-        try {
-            recipientId = resolveRecipient(recipient);
-        } catch (UnregisteredUserException e) {
-            return null;
-        }
+        return recipientCache.getName(recipient, r -> {
+            final RecipientId recipientId;
+            try {
+                recipientId = resolveRecipient(r);
+            } catch (UnregisteredUserException e) {
+                return null;
+            }
+            return new RecipientCache.Resolved<>(recipientId, getContactOrProfileName(recipientId));
+        });
+    }
 
+    private String getContactOrProfileName(RecipientId recipientId) {
         final var contact = account.getContactStore().getContact(recipientId);
         if (contact != null && !Util.isEmpty(contact.getName())) {
             return contact.getName();
@@ -1246,7 +1288,10 @@ public class ManagerImpl implements Manager {
 
     @Override
     public SignalServiceAddress resolveSignalServiceAddress(SignalServiceAddress address) {
-        return resolveSignalServiceAddress(resolveRecipient(address));
+        return recipientCache.getAddress(address, a -> {
+            final var recipientId = resolveRecipient(a);
+            return new RecipientCache.Resolved<>(recipientId, resolveSignalServiceAddress(recipientId));
+        });
     }
 
     private SignalServiceAddress resolveSignalServiceAddress(RecipientId recipientId) {
@@ -1307,6 +1352,8 @@ public class ManagerImpl implements Manager {
     }
 
     private void close(boolean closeAccount) throws IOException {
+        handleActionExecutor.shutdown();
+        profileHelper.shutdown();
         executor.shutdown();
 
         dependencies.getSignalWebSocket().disconnect();
@@ -1,8 +1,16 @@
 package org.asamk.signal.manager.actions;
 
 import org.asamk.signal.manager.jobs.Context;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
 
 public interface HandleAction {
 
     void execute(Context context) throws Throwable;
+
+    /**
+     * @return the recipient this action is limited to, or null if it may affect multiple recipients
+     */
+    default RecipientId getRecipientId() {
+        return null;
+    }
 }
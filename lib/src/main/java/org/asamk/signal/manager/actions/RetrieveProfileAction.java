@@ -3,17 +3,50 @@ package org.asamk.signal.manager.actions;
 import org.asamk.signal.manager.jobs.Context;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 public class RetrieveProfileAction implements HandleAction {
 
-    private final RecipientId recipientId;
+    private final Set<RecipientId> recipientIds;
 
     public RetrieveProfileAction(final RecipientId recipientId) {
-        this.recipientId = recipientId;
+        this(Set.of(recipientId));
+    }
+
+    private RetrieveProfileAction(final Set<RecipientId> recipientIds) {
+        this.recipientIds = recipientIds;
+    }
+
+    /**
+     * Combines all profile retrieval actions into a single action, that refreshes the profiles in one batch.
+     */
+    public static List<HandleAction> mergeRequests(final Collection<HandleAction> actions) {
+        final var recipientIds = new LinkedHashSet<RecipientId>();
+        final var result = new ArrayList<HandleAction>(actions.size());
+        for (var action : actions) {
+            if (action instanceof RetrieveProfileAction) {
+                recipientIds.addAll(((RetrieveProfileAction) action).recipientIds);
+            } else {
+                result.add(action);
+            }
+        }
+        if (!recipientIds.isEmpty()) {
+            result.add(new RetrieveProfileAction(Set.copyOf(recipientIds)));
+        }
+        return result;
     }
 
     @Override
     public void execute(Context context) throws Throwable {
-        context.getProfileHelper().refreshRecipientProfile(recipientId);
+        if (recipientIds.size() == 1) {
+            context.getProfileHelper().refreshRecipientProfile(recipientIds.iterator().next());
+        } else {
+            context.getProfileHelper().refreshRecipientProfiles(recipientIds);
+        }
     }
 
     @Override
@@ -23,11 +56,11 @@ public class RetrieveProfileAction implements HandleAction {
 
         final RetrieveProfileAction that = (RetrieveProfileAction) o;
 
-        return recipientId.equals(that.recipientId);
+        return recipientIds.equals(that.recipientIds);
     }
 
     @Override
     public int hashCode() {
-        return recipientId.hashCode();
+        return recipientIds.hashCode();
     }
 }
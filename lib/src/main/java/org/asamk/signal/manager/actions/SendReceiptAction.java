@@ -3,22 +3,55 @@ package org.asamk.signal.manager.actions;
 import org.asamk.signal.manager.jobs.Context;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
 
 public class SendReceiptAction implements HandleAction {
 
     private final RecipientId recipientId;
-    private final long timestamp;
+    private final List<Long> timestamps;
 
     public SendReceiptAction(final RecipientId recipientId, final long timestamp) {
+        this(recipientId, List.of(timestamp));
+    }
+
+    private SendReceiptAction(final RecipientId recipientId, final List<Long> timestamps) {
         this.recipientId = recipientId;
-        this.timestamp = timestamp;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Combines all receipt actions for the same recipient into a single action,
+     * so only one receipt message is sent per sender.
+     */
+    public static List<HandleAction> mergeReceipts(final Collection<HandleAction> actions) {
+        final var timestampsByRecipient = new LinkedHashMap<RecipientId, List<Long>>();
+        final var result = new ArrayList<HandleAction>(actions.size());
+        for (var action : actions) {
+            if (action instanceof SendReceiptAction) {
+                final var receiptAction = (SendReceiptAction) action;
+                timestampsByRecipient.computeIfAbsent(receiptAction.recipientId, k -> new ArrayList<>())
+                        .addAll(receiptAction.timestamps);
+            } else {
+                result.add(action);
+            }
+        }
+        timestampsByRecipient.forEach((recipientId, timestamps) -> result.add(new SendReceiptAction(recipientId,
+                List.copyOf(timestamps))));
+        return result;
     }
 
     @Override
     public void execute(Context context) throws Throwable {
-        context.getSendHelper().sendDeliveryReceipt(recipientId, List.of(timestamp));
+        context.getSendHelper().sendDeliveryReceipt(recipientId, timestamps);
+    }
+
+    @Override
+    public RecipientId getRecipientId() {
+        return recipientId;
     }
 
     @Override
@@ -26,11 +59,11 @@ public class SendReceiptAction implements HandleAction {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         final var that = (SendReceiptAction) o;
-        return timestamp == that.timestamp && recipientId.equals(that.recipientId);
+        return recipientId.equals(that.recipientId) && timestamps.equals(that.timestamps);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(recipientId, timestamp);
+        return Objects.hash(recipientId, timestamps);
     }
 }
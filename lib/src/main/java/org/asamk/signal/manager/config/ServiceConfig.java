@@ -21,10 +21,13 @@ public class ServiceConfig {
 
     public final static int PREKEY_MINIMUM_COUNT = 20;
     public final static int PREKEY_BATCH_SIZE = 100;
+    public final static long PREKEY_COUNT_CHECK_INTERVAL = 12 * 60 * 60 * 1000;
     public final static int MAX_ATTACHMENT_SIZE = 150 * 1024 * 1024;
     public final static long MAX_ENVELOPE_SIZE = 0;
     public final static long AVATAR_DOWNLOAD_FAILSAFE_MAX_SIZE = 10 * 1024 * 1024;
     public final static boolean AUTOMATIC_NETWORK_RETRY = true;
+    public final static long QUEUED_ACTIONS_FLUSH_DELAY = 500;
+    public final static int PROFILE_REFRESH_CONCURRENCY = 8;
 
     private final static KeyStore iasKeyStore;
 
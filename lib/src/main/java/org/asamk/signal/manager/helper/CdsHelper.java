@@ -0,0 +1,233 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.SignalDependencies;
+import org.asamk.signal.manager.config.ServiceConfig;
+import org.asamk.signal.manager.config.ServiceEnvironmentConfig;
+import org.asamk.signal.manager.storage.SignalAccount;
+import org.whispersystems.libsignal.InvalidKeyException;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
+import org.whispersystems.signalservice.internal.contacts.crypto.Quote;
+import org.whispersystems.signalservice.internal.contacts.crypto.UnauthenticatedQuoteException;
+import org.whispersystems.signalservice.internal.contacts.crypto.UnauthenticatedResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves phone numbers to uuids with contact discovery.
+ * <p>
+ * Results are cached in the account's CdsCacheStore, concurrent single number lookups that arrive within a short
+ * time are combined into one request and large lookups are split into chunks that are requested in parallel.
+ */
+public class CdsHelper {
+
+    private final static long LOOKUP_COALESCE_DELAY = 50;
+    private final static int LOOKUP_CHUNK_SIZE = 1000;
+
+    private final SignalAccount account;
+    private final SignalDependencies dependencies;
+    private final ServiceEnvironmentConfig serviceEnvironmentConfig;
+    private final ExecutorService executor;
+
+    private LookupBatch pendingBatch;
+    private int activeLookups = 0;
+
+    public CdsHelper(
+            final SignalAccount account,
+            final SignalDependencies dependencies,
+            final ServiceEnvironmentConfig serviceEnvironmentConfig,
+            final ExecutorService executor
+    ) {
+        this.account = account;
+        this.dependencies = dependencies;
+        this.serviceEnvironmentConfig = serviceEnvironmentConfig;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the uuids of all registered numbers, unregistered numbers are missing from the result.
+     */
+    public Map<String, UUID> getRegisteredUsers(final Set<String> numbers) throws IOException {
+        final var registeredUsers = new HashMap<String, UUID>();
+        final var uncachedNumbers = new ArrayList<String>();
+        for (var number : numbers) {
+            final var entry = account.getCdsCacheStore().getEntry(number);
+            if (entry == null) {
+                uncachedNumbers.add(number);
+            } else if (entry.isRegistered()) {
+                registeredUsers.put(number, entry.getUuid());
+            }
+        }
+
+        if (uncachedNumbers.size() <= LOOKUP_CHUNK_SIZE) {
+            if (!uncachedNumbers.isEmpty()) {
+                registeredUsers.putAll(lookupRegisteredUsers(Set.copyOf(uncachedNumbers)));
+            }
+            return registeredUsers;
+        }
+
+        final var futures = new ArrayList<Future<Map<String, UUID>>>();
+        for (var i = 0; i < uncachedNumbers.size(); i += LOOKUP_CHUNK_SIZE) {
+            final var chunk = Set.copyOf(uncachedNumbers.subList(i,
+                    Math.min(i + LOOKUP_CHUNK_SIZE, uncachedNumbers.size())));
+            futures.add(executor.submit(() -> lookupRegisteredUsers(chunk)));
+        }
+        for (var future : futures) {
+            registeredUsers.putAll(awaitLookup(future));
+        }
+        return registeredUsers;
+    }
+
+    public UUID getRegisteredUser(final String number) throws IOException {
+        final var entry = account.getCdsCacheStore().getEntry(number);
+        if (entry != null) {
+            if (!entry.isRegistered()) {
+                throw new UnregisteredUserException(number, null);
+            }
+            return entry.getUuid();
+        }
+
+        return lookupRegisteredUser(number);
+    }
+
+    /**
+     * Looks up the number again, after the server reported it as unregistered.
+     * The cached result is removed first, so it isn't used anymore even if the lookup fails.
+     */
+    public UUID refreshRegisteredUser(final String number) throws IOException {
+        account.getCdsCacheStore().deleteEntry(number);
+        return lookupRegisteredUser(number);
+    }
+
+    private UUID lookupRegisteredUser(final String number) throws IOException {
+        synchronized (this) {
+            activeLookups++;
+        }
+        try {
+            return lookupRegisteredUserCoalesced(number);
+        } finally {
+            synchronized (this) {
+                activeLookups--;
+            }
+        }
+    }
+
+    private UUID lookupRegisteredUserCoalesced(final String number) throws IOException {
+        final LookupBatch batch;
+        final boolean isBatchOwner;
+        synchronized (this) {
+            isBatchOwner = pendingBatch == null || pendingBatch.numbers.size() >= LOOKUP_CHUNK_SIZE;
+            if (isBatchOwner) {
+                pendingBatch = new LookupBatch();
+            }
+            batch = pendingBatch;
+            batch.numbers.add(number);
+        }
+
+        if (isBatchOwner) {
+            final boolean hasConcurrentLookups;
+            synchronized (this) {
+                hasConcurrentLookups = activeLookups > 1;
+            }
+            // Only if other lookups are running, wait a moment for more lookups that can be sent in the same request
+            if (hasConcurrentLookups) {
+                try {
+                    Thread.sleep(LOOKUP_COALESCE_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final Set<String> numbers;
+            synchronized (this) {
+                if (pendingBatch == batch) {
+                    pendingBatch = null;
+                }
+                numbers = Set.copyOf(batch.numbers);
+            }
+            try {
+                batch.result.complete(lookupRegisteredUsers(numbers));
+            } catch (Throwable e) {
+                batch.result.completeExceptionally(e);
+            }
+        }
+
+        Map<String, UUID> registeredUsers;
+        try {
+            try {
+                registeredUsers = awaitLookup(batch.result);
+            } catch (IOException | NumberFormatException e) {
+                if (batch.numbers.size() == 1) {
+                    throw e;
+                }
+                // Another number may have caused the combined lookup to fail
+                registeredUsers = lookupRegisteredUsers(Set.of(number));
+            }
+        } catch (NumberFormatException e) {
+            throw new UnregisteredUserException(number, e);
+        }
+
+        final var uuid = registeredUsers.get(number);
+        if (uuid == null) {
+            throw new UnregisteredUserException(number, null);
+        }
+        return uuid;
+    }
+
+    private Map<String, UUID> lookupRegisteredUsers(final Set<String> numbers) throws IOException {
+        final Map<String, UUID> registeredUsers;
+        try {
+            registeredUsers = dependencies.getAccountManager()
+                    .getRegisteredUsers(ServiceConfig.getIasKeyStore(),
+                            numbers,
+                            serviceEnvironmentConfig.getCdsMrenclave());
+        } catch (Quote.InvalidQuoteFormatException | UnauthenticatedQuoteException | SignatureException | UnauthenticatedResponseException | InvalidKeyException e) {
+            throw new IOException(e);
+        }
+
+        account.getCdsCacheStore().storeLookupResult(numbers, registeredUsers);
+
+        // Store numbers as recipients so we have the number/uuid association
+        account.getRecipientStore().batch(tx -> {
+            for (var entry : registeredUsers.entrySet()) {
+                tx.resolveRecipientTrusted(new SignalServiceAddress(entry.getValue(), entry.getKey()));
+            }
+        });
+
+        return registeredUsers;
+    }
+
+    private static Map<String, UUID> awaitLookup(final Future<Map<String, UUID>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for contact discovery");
+        } catch (ExecutionException e) {
+            final var cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class LookupBatch {
+
+        private final Set<String> numbers = new HashSet<>();
+        private final CompletableFuture<Map<String, UUID>> result = new CompletableFuture<>();
+    }
+}
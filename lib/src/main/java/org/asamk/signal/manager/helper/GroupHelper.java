@@ -48,6 +48,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -125,6 +126,7 @@ public class GroupHelper {
         if (groupInfo instanceof GroupInfoV1) {
             // Received a v2 group message for a v1 group, we need to locally migrate the group
             account.getGroupStore().deleteGroupV1(((GroupInfoV1) groupInfo).getGroupId());
+            sendHelper.removeGroupSendPlan(groupInfo.getGroupId());
             groupInfoV2 = new GroupInfoV2(groupId, groupMasterKey);
             logger.info("Locally migrated group {} to group v2, id: {}",
                     groupInfo.getGroupId().toBase64(),
@@ -135,14 +137,17 @@ public class GroupHelper {
             groupInfoV2 = new GroupInfoV2(groupId, groupMasterKey);
         }
 
-        if (groupInfoV2.getGroup() == null || groupInfoV2.getGroup().getRevision() < revision) {
+        if (groupInfoV2.getRevision() < revision) {
+            final var previousGroup = groupInfoV2.getGroup();
             DecryptedGroup group = null;
-            if (signedGroupChange != null
-                    && groupInfoV2.getGroup() != null
-                    && groupInfoV2.getGroup().getRevision() + 1 == revision) {
-                group = groupV2Helper.getUpdatedDecryptedGroup(groupInfoV2.getGroup(),
-                        signedGroupChange,
-                        groupMasterKey);
+            if (signedGroupChange != null && previousGroup != null && previousGroup.getRevision() + 1 == revision) {
+                group = groupV2Helper.getUpdatedDecryptedGroup(previousGroup, signedGroupChange, groupMasterKey);
+            }
+            if (group == null && previousGroup != null) {
+                group = getUpdatedDecryptedGroup(previousGroup, groupSecretParams);
+                if (group != null && group.getRevision() < revision) {
+                    group = null;
+                }
             }
             if (group == null) {
                 try {
@@ -306,6 +311,7 @@ public class GroupHelper {
     public void deleteGroup(GroupId groupId) throws IOException {
         account.getGroupStore().deleteGroup(groupId);
         avatarStore.deleteGroupAvatar(groupId);
+        sendHelper.removeGroupSendPlan(groupId);
     }
 
     public void setGroupBlocked(final GroupId groupId, final boolean blocked) throws GroupNotFoundException {
@@ -355,9 +361,15 @@ public class GroupHelper {
             final var groupInfoV2 = (GroupInfoV2) group;
             if (forceUpdate || (!groupInfoV2.isPermissionDenied() && groupInfoV2.getGroup() == null)) {
                 final var groupSecretParams = GroupSecretParams.deriveFromMasterKey(groupInfoV2.getMasterKey());
+                final var previousGroup = groupInfoV2.getGroup();
                 DecryptedGroup decryptedGroup;
                 try {
-                    decryptedGroup = groupV2Helper.getDecryptedGroup(groupSecretParams);
+                    decryptedGroup = previousGroup == null
+                            ? null
+                            : groupV2Helper.getUpdatedDecryptedGroup(previousGroup, groupSecretParams);
+                    if (decryptedGroup == null) {
+                        decryptedGroup = groupV2Helper.getDecryptedGroup(groupSecretParams);
+                    }
                 } catch (NotAGroupMemberException e) {
                     groupInfoV2.setPermissionDenied(true);
                     decryptedGroup = null;
@@ -369,6 +381,16 @@ public class GroupHelper {
         return group;
     }
 
+    private DecryptedGroup getUpdatedDecryptedGroup(
+            final DecryptedGroup group, final GroupSecretParams groupSecretParams
+    ) {
+        try {
+            return groupV2Helper.getUpdatedDecryptedGroup(group, groupSecretParams);
+        } catch (NotAGroupMemberException e) {
+            return null;
+        }
+    }
+
     private void downloadGroupAvatar(GroupIdV2 groupId, GroupSecretParams groupSecretParams, String cdnKey) {
         try {
             avatarStore.storeGroupAvatar(groupId,
@@ -490,12 +512,22 @@ public class GroupHelper {
             result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
         }
 
+        // All modifications are committed as a single group change, so only one update message is sent.
+        // Members and admins are filtered against the state expected after the change, conflicting options are
+        // resolved like separate updates in the order add, remove, admin, remove admin would have resolved them.
+        final var changes = new ArrayList<GroupChange.Actions.Builder>();
+        final var expectedMembers = new HashSet<>(group.getMembers());
         if (members != null) {
             final var newMembers = new HashSet<>(members);
             newMembers.removeAll(group.getMembers());
+            if (removeMembers != null) {
+                newMembers.removeAll(removeMembers);
+            }
             if (newMembers.size() > 0) {
-                var groupGroupChangePair = groupV2Helper.addMembers(group, newMembers);
-                result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+                final var addMembersChange = groupV2Helper.createAddMembersChange(group, newMembers);
+                changes.add(addMembersChange.first());
+                // Members without profile key credential are only invited and can't become admins yet
+                expectedMembers.addAll(addMembersChange.second());
             }
         }
 
@@ -504,77 +536,73 @@ public class GroupHelper {
             existingRemoveMembers.retainAll(group.getMembers());
             existingRemoveMembers.remove(account.getSelfRecipientId());// self can be removed with sendQuitGroupMessage
             if (existingRemoveMembers.size() > 0) {
-                var groupGroupChangePair = groupV2Helper.removeMembers(group, existingRemoveMembers);
-                result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+                changes.add(groupV2Helper.createRemoveMembersChange(group, existingRemoveMembers));
+                expectedMembers.removeAll(existingRemoveMembers);
             }
 
             var pendingRemoveMembers = new HashSet<>(removeMembers);
             pendingRemoveMembers.retainAll(group.getPendingMembers());
             if (pendingRemoveMembers.size() > 0) {
-                var groupGroupChangePair = groupV2Helper.revokeInvitedMembers(group, pendingRemoveMembers);
-                result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+                changes.add(groupV2Helper.createRevokeInvitedMembersChange(group, pendingRemoveMembers));
             }
         }
 
+        final var newAdmins = new HashSet<RecipientId>();
         if (admins != null) {
-            final var newAdmins = new HashSet<>(admins);
-            newAdmins.retainAll(group.getMembers());
+            newAdmins.addAll(admins);
+            newAdmins.retainAll(expectedMembers);
             newAdmins.removeAll(group.getAdminMembers());
-            if (newAdmins.size() > 0) {
-                for (var admin : newAdmins) {
-                    var groupGroupChangePair = groupV2Helper.setMemberAdmin(group, admin, true);
-                    result = sendUpdateGroupV2Message(group,
-                            groupGroupChangePair.first(),
-                            groupGroupChangePair.second());
-                }
-            }
         }
 
+        final var existingRemoveAdmins = new HashSet<RecipientId>();
         if (removeAdmins != null) {
-            final var existingRemoveAdmins = new HashSet<>(removeAdmins);
+            existingRemoveAdmins.addAll(removeAdmins);
+            existingRemoveAdmins.retainAll(expectedMembers);
+            // Members made admin and removed as admin again keep their current role
+            final var revertedAdmins = new HashSet<>(existingRemoveAdmins);
+            revertedAdmins.retainAll(newAdmins);
+            newAdmins.removeAll(revertedAdmins);
+            existingRemoveAdmins.removeAll(revertedAdmins);
             existingRemoveAdmins.retainAll(group.getAdminMembers());
-            if (existingRemoveAdmins.size() > 0) {
-                for (var admin : existingRemoveAdmins) {
-                    var groupGroupChangePair = groupV2Helper.setMemberAdmin(group, admin, false);
-                    result = sendUpdateGroupV2Message(group,
-                            groupGroupChangePair.first(),
-                            groupGroupChangePair.second());
-                }
-            }
+        }
+
+        for (var admin : newAdmins) {
+            changes.add(groupV2Helper.createMemberAdminChange(group, admin, true));
+        }
+        for (var admin : existingRemoveAdmins) {
+            changes.add(groupV2Helper.createMemberAdminChange(group, admin, false));
         }
 
         if (resetGroupLink) {
-            var groupGroupChangePair = groupV2Helper.resetGroupLinkPassword(group);
-            result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+            changes.add(groupV2Helper.createResetGroupLinkPasswordChange(group));
         }
 
         if (groupLinkState != null) {
-            var groupGroupChangePair = groupV2Helper.setGroupLinkState(group, groupLinkState);
-            result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+            changes.add(groupV2Helper.createGroupLinkStateChange(group, groupLinkState));
         }
 
         if (addMemberPermission != null) {
-            var groupGroupChangePair = groupV2Helper.setAddMemberPermission(group, addMemberPermission);
-            result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+            changes.add(groupV2Helper.createAddMemberPermissionChange(group, addMemberPermission));
         }
 
         if (editDetailsPermission != null) {
-            var groupGroupChangePair = groupV2Helper.setEditDetailsPermission(group, editDetailsPermission);
-            result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+            changes.add(groupV2Helper.createEditDetailsPermissionChange(group, editDetailsPermission));
         }
 
         if (expirationTimer != null) {
-            var groupGroupChangePair = groupV2Helper.setMessageExpirationTimer(group, expirationTimer);
-            result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+            changes.add(groupV2Helper.createMessageExpirationTimerChange(group, expirationTimer));
         }
 
         if (isAnnouncementGroup != null) {
-            var groupGroupChangePair = groupV2Helper.setIsAnnouncementGroup(group, isAnnouncementGroup);
-            result = sendUpdateGroupV2Message(group, groupGroupChangePair.first(), groupGroupChangePair.second());
+            changes.add(groupV2Helper.createAnnouncementGroupChange(group, isAnnouncementGroup));
         }
 
         if (name != null || description != null || avatarFile != null) {
-            var groupGroupChangePair = groupV2Helper.updateGroup(group, name, description, avatarFile);
+            changes.add(groupV2Helper.createUpdateGroupChange(group, name, description, avatarFile));
+        }
+
+        if (changes.size() > 0) {
+            var groupGroupChangePair = groupV2Helper.commitChanges(group, changes);
             if (avatarFile != null) {
                 avatarStore.storeGroupAvatar(group.getGroupId(),
                         outputStream -> IOUtils.copyFileToStream(avatarFile, outputStream));
@@ -593,8 +621,10 @@ public class GroupHelper {
         var messageBuilder = SignalServiceDataMessage.newBuilder().asGroupMessage(group);
         groupInfoV1.removeMember(account.getSelfRecipientId());
         account.getGroupStore().updateGroup(groupInfoV1);
-        return sendGroupMessage(messageBuilder,
+        final var results = sendGroupMessage(messageBuilder,
                 groupInfoV1.getMembersIncludingPendingWithout(account.getSelfRecipientId()));
+        sendHelper.removeGroupSendPlan(groupInfoV1.getGroupId());
+        return results;
     }
 
     private SendGroupMessageResults quitGroupV2(
@@ -615,8 +645,10 @@ public class GroupHelper {
         account.getGroupStore().updateGroup(groupInfoV2);
 
         var messageBuilder = getGroupUpdateMessageBuilder(groupInfoV2, groupGroupChangePair.second().toByteArray());
-        return sendGroupMessage(messageBuilder,
+        final var results = sendGroupMessage(messageBuilder,
                 groupInfoV2.getMembersIncludingPendingWithout(account.getSelfRecipientId()));
+        sendHelper.removeGroupSendPlan(groupInfoV2.getGroupId());
+        return results;
     }
 
     private SignalServiceDataMessage.Builder getGroupUpdateMessageBuilder(GroupInfoV1 g) throws AttachmentInvalidException {
@@ -23,6 +23,7 @@ import org.signal.zkgroup.VerificationFailedException;
 import org.signal.zkgroup.groups.GroupMasterKey;
 import org.signal.zkgroup.groups.GroupSecretParams;
 import org.signal.zkgroup.groups.UuidCiphertext;
+import org.signal.zkgroup.profiles.ProfileKeyCredential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.libsignal.util.Pair;
@@ -43,6 +44,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -96,6 +99,55 @@ public class GroupV2Helper {
         }
     }
 
+    /**
+     * Brings the group up to date by fetching only the missing changes from the group change log and applying them
+     * locally.
+     *
+     * @return the updated group or null, if the changes couldn't be retrieved or applied and the full group needs
+     * to be fetched instead.
+     */
+    public DecryptedGroup getUpdatedDecryptedGroup(
+            final DecryptedGroup group, final GroupSecretParams groupSecretParams
+    ) throws NotAGroupMemberException {
+        var updatedGroup = group;
+        try {
+            final var groupsV2AuthorizationString = getGroupAuthForToday(groupSecretParams);
+            var fromRevision = group.getRevision() + 1;
+            while (true) {
+                final var page = groupsV2Api.getGroupHistoryPage(groupSecretParams,
+                        fromRevision,
+                        groupsV2AuthorizationString,
+                        false);
+                for (var entry : page.getResults()) {
+                    final var change = entry.getChange();
+                    if (!change.isPresent() || change.get().getRevision() <= updatedGroup.getRevision()) {
+                        continue;
+                    }
+                    if (change.get().getRevision() != updatedGroup.getRevision() + 1) {
+                        logger.debug("Missing group change for revision {}, fetching full group",
+                                updatedGroup.getRevision() + 1);
+                        return null;
+                    }
+                    updatedGroup = DecryptedGroupUtil.apply(updatedGroup, change.get());
+                }
+                if (!page.getPagingData().hasMorePages()) {
+                    break;
+                }
+                fromRevision = page.getPagingData().getNextPageRevision();
+            }
+        } catch (NonSuccessfulResponseCodeException e) {
+            if (e.getCode() == 403) {
+                throw new NotAGroupMemberException(GroupUtils.getGroupIdV2(groupSecretParams), null);
+            }
+            logger.debug("Failed to retrieve Group V2 changes, fetching full group: {}", e.getMessage());
+            return null;
+        } catch (IOException | VerificationFailedException | InvalidGroupStateException | NotAbleToApplyGroupV2ChangeException e) {
+            logger.debug("Failed to apply Group V2 changes, fetching full group: {}", e.getMessage());
+            return null;
+        }
+        return updatedGroup;
+    }
+
     public DecryptedGroupJoinInfo getDecryptedGroupJoinInfo(
             GroupMasterKey groupMasterKey, GroupLinkPassword password
     ) throws IOException, GroupLinkNotActiveException {
@@ -150,19 +202,17 @@ public class GroupV2Helper {
     private GroupsV2Operations.NewGroup buildNewGroup(
             String name, Set<RecipientId> members, byte[] avatar
     ) {
-        final var profileKeyCredential = profileKeyCredentialProvider.getProfileKeyCredential(selfRecipientIdProvider.getSelfRecipientId());
+        final var profileKeyCredential = getProfileKeyCredential(selfRecipientIdProvider.getSelfRecipientId());
         if (profileKeyCredential == null) {
             logger.warn("Cannot create a V2 group as self does not have a versioned profile");
             return null;
         }
 
+        // Retrieving the credentials also stores the members' profiles, which are needed to validate the members
+        final var candidates = getGroupCandidates(members);
         if (!areMembersValid(members)) return null;
 
         var self = new GroupCandidate(getSelfUuid(), Optional.fromNullable(profileKeyCredential));
-        var candidates = members.stream()
-                .map(member -> new GroupCandidate(addressResolver.resolveSignalServiceAddress(member).getUuid(),
-                        Optional.fromNullable(profileKeyCredentialProvider.getProfileKeyCredential(member))))
-                .collect(Collectors.toSet());
 
         final var groupSecretParams = GroupSecretParams.generate();
         return groupsV2Operations.createNewGroup(groupSecretParams,
@@ -174,6 +224,37 @@ public class GroupV2Helper {
                 0);
     }
 
+    /**
+     * Members whose profile key credential can't be retrieved are added as pending members.
+     */
+    private Set<GroupCandidate> getGroupCandidates(final Set<RecipientId> members) {
+        return getGroupCandidates(members, profileKeyCredentialProvider.getProfileKeyCredentials(members));
+    }
+
+    private Set<GroupCandidate> getGroupCandidates(
+            final Set<RecipientId> members, final Map<RecipientId, ProfileKeyCredential> profileKeyCredentials
+    ) {
+        final var membersWithoutCredential = members.stream()
+                .filter(member -> !profileKeyCredentials.containsKey(member))
+                .collect(Collectors.toSet());
+        if (membersWithoutCredential.size() > 0) {
+            logger.info("Failed to retrieve profile key credential for {} members, inviting them instead: {}",
+                    membersWithoutCredential.size(),
+                    membersWithoutCredential.stream()
+                            .map(addressResolver::resolveSignalServiceAddress)
+                            .map(SignalServiceAddress::getIdentifier)
+                            .collect(Collectors.joining(", ")));
+        }
+        return members.stream()
+                .map(member -> new GroupCandidate(addressResolver.resolveSignalServiceAddress(member).getUuid(),
+                        Optional.fromNullable(profileKeyCredentials.get(member))))
+                .collect(Collectors.toSet());
+    }
+
+    private ProfileKeyCredential getProfileKeyCredential(final RecipientId recipientId) {
+        return profileKeyCredentialProvider.getProfileKeyCredentials(Set.of(recipientId)).get(recipientId);
+    }
+
     private boolean areMembersValid(final Set<RecipientId> members) {
         final var noGv2Capability = members.stream()
                 .map(profileProvider::getProfile)
@@ -188,7 +269,7 @@ public class GroupV2Helper {
         return true;
     }
 
-    public Pair<DecryptedGroup, GroupChange> updateGroup(
+    public GroupChange.Actions.Builder createUpdateGroupChange(
             GroupInfoV2 groupInfoV2, String name, String description, File avatarFile
     ) throws IOException {
         final var groupSecretParams = GroupSecretParams.deriveFromMasterKey(groupInfoV2.getMasterKey());
@@ -211,29 +292,29 @@ public class GroupV2Helper {
         final var uuid = getSelfUuid();
         change.setSourceUuid(UuidUtil.toByteString(uuid));
 
-        return commitChange(groupInfoV2, change);
+        return change;
     }
 
-    public Pair<DecryptedGroup, GroupChange> addMembers(
+    /**
+     * @return the change and the new members that are added as full members, the others are only invited
+     */
+    public Pair<GroupChange.Actions.Builder, Set<RecipientId>> createAddMembersChange(
             GroupInfoV2 groupInfoV2, Set<RecipientId> newMembers
     ) throws IOException {
         GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
 
+        final var profileKeyCredentials = profileKeyCredentialProvider.getProfileKeyCredentials(newMembers);
+        final var candidates = getGroupCandidates(newMembers, profileKeyCredentials);
         if (!areMembersValid(newMembers)) {
             throw new IOException("Failed to update group");
         }
 
-        var candidates = newMembers.stream()
-                .map(member -> new GroupCandidate(addressResolver.resolveSignalServiceAddress(member).getUuid(),
-                        Optional.fromNullable(profileKeyCredentialProvider.getProfileKeyCredential(member))))
-                .collect(Collectors.toSet());
-
         final var uuid = getSelfUuid();
         final var change = groupOperations.createModifyGroupMembershipChange(candidates, uuid);
 
         change.setSourceUuid(UuidUtil.toByteString(uuid));
 
-        return commitChange(groupInfoV2, change);
+        return new Pair<>(change, Set.copyOf(profileKeyCredentials.keySet()));
     }
 
     public Pair<DecryptedGroup, GroupChange> leaveGroup(
@@ -255,17 +336,17 @@ public class GroupV2Helper {
         return commitChange(groupInfoV2, groupOperations.createLeaveAndPromoteMembersToAdmin(selfUuid, adminUuids));
     }
 
-    public Pair<DecryptedGroup, GroupChange> removeMembers(
+    public GroupChange.Actions.Builder createRemoveMembersChange(
             GroupInfoV2 groupInfoV2, Set<RecipientId> members
     ) throws IOException {
         final var memberUuids = members.stream()
                 .map(addressResolver::resolveSignalServiceAddress)
                 .map(SignalServiceAddress::getUuid)
                 .collect(Collectors.toSet());
-        return ejectMembers(groupInfoV2, memberUuids);
+        return getGroupOperations(groupInfoV2).createRemoveMembersChange(memberUuids);
     }
 
-    public Pair<DecryptedGroup, GroupChange> revokeInvitedMembers(
+    public GroupChange.Actions.Builder createRevokeInvitedMembersChange(
             GroupInfoV2 groupInfoV2, Set<RecipientId> members
     ) throws IOException {
         var pendingMembersList = groupInfoV2.getGroup().getPendingMembersList();
@@ -276,17 +357,16 @@ public class GroupV2Helper {
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(Collectors.toSet());
-        return revokeInvites(groupInfoV2, memberUuids);
+        return createRevokeInvitesChange(groupInfoV2, memberUuids);
     }
 
-    public Pair<DecryptedGroup, GroupChange> resetGroupLinkPassword(GroupInfoV2 groupInfoV2) throws IOException {
+    public GroupChange.Actions.Builder createResetGroupLinkPasswordChange(GroupInfoV2 groupInfoV2) {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
         final var newGroupLinkPassword = GroupLinkPassword.createNew().serialize();
-        final var change = groupOperations.createModifyGroupLinkPasswordChange(newGroupLinkPassword);
-        return commitChange(groupInfoV2, change);
+        return groupOperations.createModifyGroupLinkPasswordChange(newGroupLinkPassword);
     }
 
-    public Pair<DecryptedGroup, GroupChange> setGroupLinkState(
+    public GroupChange.Actions.Builder createGroupLinkStateChange(
             GroupInfoV2 groupInfoV2, GroupLinkState state
     ) throws IOException {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
@@ -296,30 +376,27 @@ public class GroupV2Helper {
                 .getInviteLinkPassword()
                 .isEmpty();
 
-        final var change = requiresNewPassword ? groupOperations.createModifyGroupLinkPasswordAndRightsChange(
+        return requiresNewPassword ? groupOperations.createModifyGroupLinkPasswordAndRightsChange(
                 GroupLinkPassword.createNew().serialize(),
                 accessRequired) : groupOperations.createChangeJoinByLinkRights(accessRequired);
-        return commitChange(groupInfoV2, change);
     }
 
-    public Pair<DecryptedGroup, GroupChange> setEditDetailsPermission(
+    public GroupChange.Actions.Builder createEditDetailsPermissionChange(
             GroupInfoV2 groupInfoV2, GroupPermission permission
     ) throws IOException {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
 
         final var accessRequired = toAccessControl(permission);
-        final var change = groupOperations.createChangeAttributesRights(accessRequired);
-        return commitChange(groupInfoV2, change);
+        return groupOperations.createChangeAttributesRights(accessRequired);
     }
 
-    public Pair<DecryptedGroup, GroupChange> setAddMemberPermission(
+    public GroupChange.Actions.Builder createAddMemberPermissionChange(
             GroupInfoV2 groupInfoV2, GroupPermission permission
     ) throws IOException {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
 
         final var accessRequired = toAccessControl(permission);
-        final var change = groupOperations.createChangeMembershipRights(accessRequired);
-        return commitChange(groupInfoV2, change);
+        return groupOperations.createChangeMembershipRights(accessRequired);
     }
 
     public GroupChange joinGroup(
@@ -331,7 +408,7 @@ public class GroupV2Helper {
         final var groupOperations = groupsV2Operations.forGroup(groupSecretParams);
 
         final var selfRecipientId = this.selfRecipientIdProvider.getSelfRecipientId();
-        final var profileKeyCredential = profileKeyCredentialProvider.getProfileKeyCredential(selfRecipientId);
+        final var profileKeyCredential = getProfileKeyCredential(selfRecipientId);
         if (profileKeyCredential == null) {
             throw new IOException("Cannot join a V2 group as self does not have a versioned profile");
         }
@@ -351,7 +428,7 @@ public class GroupV2Helper {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
 
         final var selfRecipientId = this.selfRecipientIdProvider.getSelfRecipientId();
-        final var profileKeyCredential = profileKeyCredentialProvider.getProfileKeyCredential(selfRecipientId);
+        final var profileKeyCredential = getProfileKeyCredential(selfRecipientId);
         if (profileKeyCredential == null) {
             throw new IOException("Cannot join a V2 group as self does not have a versioned profile");
         }
@@ -364,30 +441,27 @@ public class GroupV2Helper {
         return commitChange(groupInfoV2, change);
     }
 
-    public Pair<DecryptedGroup, GroupChange> setMemberAdmin(
+    public GroupChange.Actions.Builder createMemberAdminChange(
             GroupInfoV2 groupInfoV2, RecipientId recipientId, boolean admin
     ) throws IOException {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
         final var address = addressResolver.resolveSignalServiceAddress(recipientId);
         final var newRole = admin ? Member.Role.ADMINISTRATOR : Member.Role.DEFAULT;
-        final var change = groupOperations.createChangeMemberRole(address.getUuid(), newRole);
-        return commitChange(groupInfoV2, change);
+        return groupOperations.createChangeMemberRole(address.getUuid(), newRole);
     }
 
-    public Pair<DecryptedGroup, GroupChange> setMessageExpirationTimer(
+    public GroupChange.Actions.Builder createMessageExpirationTimerChange(
             GroupInfoV2 groupInfoV2, int messageExpirationTimer
     ) throws IOException {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
-        final var change = groupOperations.createModifyGroupTimerChange(messageExpirationTimer);
-        return commitChange(groupInfoV2, change);
+        return groupOperations.createModifyGroupTimerChange(messageExpirationTimer);
     }
 
-    public Pair<DecryptedGroup, GroupChange> setIsAnnouncementGroup(
+    public GroupChange.Actions.Builder createAnnouncementGroupChange(
             GroupInfoV2 groupInfoV2, boolean isAnnouncementGroup
     ) throws IOException {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
-        final var change = groupOperations.createAnnouncementGroupChange(isAnnouncementGroup);
-        return commitChange(groupInfoV2, change);
+        return groupOperations.createAnnouncementGroupChange(isAnnouncementGroup);
     }
 
     private AccessControl.AccessRequired toAccessControl(final GroupLinkState state) {
@@ -422,6 +496,12 @@ public class GroupV2Helper {
     private Pair<DecryptedGroup, GroupChange> revokeInvites(
             GroupInfoV2 groupInfoV2, Set<DecryptedPendingMember> pendingMembers
     ) throws IOException {
+        return commitChange(groupInfoV2, createRevokeInvitesChange(groupInfoV2, pendingMembers));
+    }
+
+    private GroupChange.Actions.Builder createRevokeInvitesChange(
+            GroupInfoV2 groupInfoV2, Set<DecryptedPendingMember> pendingMembers
+    ) {
         final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
         final var uuidCipherTexts = pendingMembers.stream().map(member -> {
             try {
@@ -430,14 +510,21 @@ public class GroupV2Helper {
                 throw new AssertionError(e);
             }
         }).collect(Collectors.toSet());
-        return commitChange(groupInfoV2, groupOperations.createRemoveInvitationChange(uuidCipherTexts));
+        return groupOperations.createRemoveInvitationChange(uuidCipherTexts);
     }
 
-    private Pair<DecryptedGroup, GroupChange> ejectMembers(
-            GroupInfoV2 groupInfoV2, Set<UUID> uuids
+    /**
+     * Combines all changes into a single group change, so they are applied with one new group revision.
+     */
+    public Pair<DecryptedGroup, GroupChange> commitChanges(
+            GroupInfoV2 groupInfoV2, List<GroupChange.Actions.Builder> changes
     ) throws IOException {
-        final GroupsV2Operations.GroupOperations groupOperations = getGroupOperations(groupInfoV2);
-        return commitChange(groupInfoV2, groupOperations.createRemoveMembersChange(uuids));
+        final var change = GroupChange.Actions.newBuilder();
+        for (var c : changes) {
+            change.mergeFrom(c.build());
+        }
+        change.setSourceUuid(UuidUtil.toByteString(getSelfUuid()));
+        return commitChange(groupInfoV2, change);
     }
 
     private Pair<DecryptedGroup, GroupChange> commitChange(
@@ -11,7 +11,12 @@ import org.whispersystems.libsignal.state.PreKeyRecord;
 import org.whispersystems.libsignal.state.SignedPreKeyRecord;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 public class PreKeyHelper {
 
@@ -19,37 +24,119 @@ public class PreKeyHelper {
 
     private final SignalAccount account;
     private final SignalDependencies dependencies;
+    private final ExecutorService executor;
+
+    // Pre key count on the server at the last check, -1 if unknown
+    private int serverPreKeyCount = -1;
+    private long removedPreKeyCountAtCheck;
+    private long lastPreKeyCountCheck;
+    private Future<List<PreKeyRecord>> nextPreKeys;
 
     public PreKeyHelper(
-            final SignalAccount account, final SignalDependencies dependencies
+            final SignalAccount account, final SignalDependencies dependencies, final ExecutorService executor
     ) {
         this.account = account;
         this.dependencies = dependencies;
+        this.executor = executor;
     }
 
-    public void refreshPreKeysIfNecessary() throws IOException {
-        if (dependencies.getAccountManager().getPreKeysCount() < ServiceConfig.PREKEY_MINIMUM_COUNT) {
+    /**
+     * Uploads new pre keys if the server is running low.
+     * Every consumed one-time pre key is removed from the local store, so the server count is estimated locally and
+     * only verified with the server when the estimate gets low or the last check is too old.
+     */
+    public synchronized void refreshPreKeysIfNecessary() throws IOException {
+        final var now = System.currentTimeMillis();
+        if (getEstimatedPreKeyCount() >= ServiceConfig.PREKEY_MINIMUM_COUNT
+                && now - lastPreKeyCountCheck < ServiceConfig.PREKEY_COUNT_CHECK_INTERVAL) {
+            return;
+        }
+
+        final var preKeyCount = dependencies.getAccountManager().getPreKeysCount();
+        setServerPreKeyCount(preKeyCount, now);
+        if (preKeyCount < ServiceConfig.PREKEY_MINIMUM_COUNT) {
             refreshPreKeys();
+        } else {
+            prepareNextPreKeys();
         }
     }
 
-    public void refreshPreKeys() throws IOException {
+    public synchronized void refreshPreKeys() throws IOException {
         var oneTimePreKeys = generatePreKeys();
         final var identityKeyPair = account.getIdentityKeyPair();
         var signedPreKeyRecord = generateSignedPreKey(identityKeyPair);
 
         dependencies.getAccountManager().setPreKeys(identityKeyPair.getPublicKey(), signedPreKeyRecord, oneTimePreKeys);
+        // Uploading pre keys replaces all one-time pre keys on the server
+        setServerPreKeyCount(oneTimePreKeys.size(), System.currentTimeMillis());
+        prepareNextPreKeys();
+    }
+
+    private int getEstimatedPreKeyCount() {
+        if (serverPreKeyCount == -1) {
+            return -1;
+        }
+        final var consumed = account.getPreKeyStore().getRemovedPreKeyCount() - removedPreKeyCountAtCheck;
+        return (int) Math.max(0, serverPreKeyCount - consumed);
+    }
+
+    private void setServerPreKeyCount(final int preKeyCount, final long now) {
+        serverPreKeyCount = preKeyCount;
+        removedPreKeyCountAtCheck = account.getPreKeyStore().getRemovedPreKeyCount();
+        lastPreKeyCountCheck = now;
+    }
+
+    /**
+     * Generates the next pre key batch in the background, so uploading doesn't have to wait for key generation.
+     */
+    private void prepareNextPreKeys() {
+        if (nextPreKeys != null) {
+            return;
+        }
+        final var offset = account.getPreKeyIdOffset();
+        try {
+            nextPreKeys = executor.submit(() -> KeyUtils.generatePreKeyRecords(offset,
+                    ServiceConfig.PREKEY_BATCH_SIZE));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Manager is closing, not generating pre keys in advance");
+        }
     }
 
-    private List<PreKeyRecord> generatePreKeys() {
+    private List<PreKeyRecord> generatePreKeys() throws IOException {
         final var offset = account.getPreKeyIdOffset();
 
-        var records = KeyUtils.generatePreKeyRecords(offset, ServiceConfig.PREKEY_BATCH_SIZE);
+        var records = takeNextPreKeys(offset);
+        if (records == null) {
+            records = KeyUtils.generatePreKeyRecords(offset, ServiceConfig.PREKEY_BATCH_SIZE);
+        }
         account.addPreKeys(records);
 
         return records;
     }
 
+    private List<PreKeyRecord> takeNextPreKeys(final int offset) throws IOException {
+        if (nextPreKeys == null) {
+            return null;
+        }
+        final List<PreKeyRecord> records;
+        try {
+            records = nextPreKeys.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating pre keys");
+        } catch (ExecutionException e) {
+            logger.warn("Failed to generate pre keys in advance: {}", e.getMessage());
+            return null;
+        } finally {
+            nextPreKeys = null;
+        }
+        if (records.isEmpty() || records.get(0).getId() != offset) {
+            // The pre key id offset changed since the batch was generated, e.g. after a new registration
+            return null;
+        }
+        return records;
+    }
+
     private SignedPreKeyRecord generateSignedPreKey(IdentityKeyPair identityKeyPair) {
         final var signedPreKeyId = account.getNextSignedPreKeyId();
 
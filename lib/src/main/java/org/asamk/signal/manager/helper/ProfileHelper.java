@@ -30,11 +30,21 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import io.reactivex.rxjava3.core.Single;
 
@@ -42,6 +52,9 @@ public final class ProfileHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(ProfileHelper.class);
 
+    private final static long PROFILE_MAX_AGE = 24 * 60 * 60 * 1000;
+    private final static long SHUTDOWN_TIMEOUT = 5 * 1000;
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final AvatarStore avatarStore;
@@ -49,6 +62,12 @@ public final class ProfileHelper {
     private final UnidentifiedAccessProvider unidentifiedAccessProvider;
     private final SignalServiceAddressResolver addressResolver;
 
+    private final ThreadPoolExecutor refreshExecutor;
+    private final AtomicLong refreshTaskSequence = new AtomicLong();
+    private final Map<RecipientId, CompletableFuture<Profile>> pendingProfileRequests = new ConcurrentHashMap<>();
+    private final Map<RecipientId, CompletableFuture<ProfileKeyCredential>> pendingCredentialRequests = new ConcurrentHashMap<>();
+    private final static ThreadLocal<Boolean> isRefreshThread = ThreadLocal.withInitial(() -> false);
+
     public ProfileHelper(
             final SignalAccount account,
             final SignalDependencies dependencies,
@@ -63,14 +82,98 @@ public final class ProfileHelper {
         this.profileKeyProvider = profileKeyProvider;
         this.unidentifiedAccessProvider = unidentifiedAccessProvider;
         this.addressResolver = addressResolver;
+        this.refreshExecutor = new ThreadPoolExecutor(ServiceConfig.PROFILE_REFRESH_CONCURRENCY,
+                ServiceConfig.PROFILE_REFRESH_CONCURRENCY,
+                60,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                r -> {
+                    final var thread = new Thread(r, "profile-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stops accepting new refreshes and waits a bounded time for running ones, so they can finish their store writes.
+     */
+    public void shutdown() {
+        refreshExecutor.shutdown();
+        try {
+            if (!refreshExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.debug("Profile refresh didn't finish in time, abandoning pending refreshes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    /**
+     * Returns the locally stored profile.
+     * If it's outdated, it is returned as is while a refresh is scheduled in the background.
+     * Only if no profile is known yet, the caller has to wait for it to be retrieved.
+     */
     public Profile getRecipientProfile(RecipientId recipientId) {
-        return getRecipientProfile(recipientId, false);
+        final var profile = account.getProfileStore().getProfile(recipientId);
+        if (profile != null) {
+            if (System.currentTimeMillis() - profile.getLastUpdateTimestamp() >= PROFILE_MAX_AGE) {
+                scheduleProfileRefresh(recipientId, profile);
+            }
+            return profile;
+        }
+
+        if (isRefreshThread.get()) {
+            // Called while retrieving a profile, waiting here could block the refresh pipeline
+            return null;
+        }
+        return awaitResult(scheduleProfileRefresh(recipientId, null));
     }
 
     public void refreshRecipientProfile(RecipientId recipientId) {
-        getRecipientProfile(recipientId, true);
+        awaitResult(scheduleProfileRefresh(recipientId, account.getProfileStore().getProfile(recipientId)));
+    }
+
+    /**
+     * Retrieves the profiles of all given recipients, stalest profiles first.
+     */
+    public void refreshRecipientProfiles(Collection<RecipientId> recipientIds) {
+        final var futures = recipientIds.stream()
+                .map(recipientId -> scheduleProfileRefresh(recipientId,
+                        account.getProfileStore().getProfile(recipientId)))
+                .collect(Collectors.toList());
+        futures.forEach(this::awaitResult);
+    }
+
+    /**
+     * Returns the profile key credentials of the given recipients, missing credentials are retrieved concurrently.
+     *
+     * @return the credentials, recipients whose credential couldn't be retrieved are missing from the result.
+     */
+    public Map<RecipientId, ProfileKeyCredential> getRecipientProfileKeyCredentials(
+            Collection<RecipientId> recipientIds
+    ) {
+        final var profileKeyCredentials = new HashMap<RecipientId, ProfileKeyCredential>();
+        final var futures = new HashMap<RecipientId, CompletableFuture<ProfileKeyCredential>>();
+        for (var recipientId : recipientIds) {
+            final var profileKeyCredential = account.getProfileStore().getProfileKeyCredential(recipientId);
+            if (profileKeyCredential != null) {
+                profileKeyCredentials.put(recipientId, profileKeyCredential);
+            } else if (isRefreshThread.get()) {
+                // Waiting for other refresh tasks here could block the refresh pipeline
+                futures.put(recipientId,
+                        CompletableFuture.completedFuture(getRecipientProfileKeyCredential(recipientId)));
+            } else {
+                futures.put(recipientId, scheduleProfileKeyCredentialRetrieval(recipientId));
+            }
+        }
+        futures.forEach((recipientId, future) -> {
+            final var profileKeyCredential = awaitResult(future);
+            if (profileKeyCredential != null) {
+                profileKeyCredentials.put(recipientId, profileKeyCredential);
+            }
+        });
+        return profileKeyCredentials;
     }
 
     public ProfileKeyCredential getRecipientProfileKeyCredential(RecipientId recipientId) {
@@ -168,36 +271,82 @@ public final class ProfileHelper {
         account.getProfileStore().storeProfile(account.getSelfRecipientId(), newProfile);
     }
 
-    private final Set<RecipientId> pendingProfileRequest = new HashSet<>();
+    /**
+     * Schedules a profile retrieval, ordered by the age of the current profile.
+     * If a retrieval for the recipient is already pending, its result is shared.
+     */
+    private CompletableFuture<Profile> scheduleProfileRefresh(RecipientId recipientId, Profile currentProfile) {
+        final var future = new CompletableFuture<Profile>();
+        final var pendingFuture = pendingProfileRequests.putIfAbsent(recipientId, future);
+        if (pendingFuture != null) {
+            return pendingFuture;
+        }
 
-    private Profile getRecipientProfile(RecipientId recipientId, boolean force) {
-        var profile = account.getProfileStore().getProfile(recipientId);
+        final var lastUpdateTimestamp = currentProfile == null ? 0 : currentProfile.getLastUpdateTimestamp();
+        try {
+            refreshExecutor.execute(new RefreshTask(lastUpdateTimestamp, () -> {
+                Profile profile = null;
+                try {
+                    profile = retrieveRecipientProfile(recipientId);
+                } finally {
+                    pendingProfileRequests.remove(recipientId);
+                    future.complete(profile);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            pendingProfileRequests.remove(recipientId);
+            future.complete(null);
+        }
+        return future;
+    }
 
-        var now = System.currentTimeMillis();
-        // Profiles are cached for 24h before retrieving them again, unless forced
-        if (!force && profile != null && now - profile.getLastUpdateTimestamp() < 24 * 60 * 60 * 1000) {
-            return profile;
+    /**
+     * Schedules the retrieval of a profile key credential, before any pending profile refreshes.
+     * If a retrieval for the recipient is already pending, its result is shared.
+     */
+    private CompletableFuture<ProfileKeyCredential> scheduleProfileKeyCredentialRetrieval(RecipientId recipientId) {
+        final var future = new CompletableFuture<ProfileKeyCredential>();
+        final var pendingFuture = pendingCredentialRequests.putIfAbsent(recipientId, future);
+        if (pendingFuture != null) {
+            return pendingFuture;
         }
 
-        synchronized (pendingProfileRequest) {
-            if (pendingProfileRequest.contains(recipientId)) {
-                return profile;
-            }
-            pendingProfileRequest.add(recipientId);
+        try {
+            refreshExecutor.execute(new RefreshTask(Long.MIN_VALUE, () -> {
+                ProfileKeyCredential profileKeyCredential = null;
+                try {
+                    profileKeyCredential = getRecipientProfileKeyCredential(recipientId);
+                } finally {
+                    pendingCredentialRequests.remove(recipientId);
+                    future.complete(profileKeyCredential);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            pendingCredentialRequests.remove(recipientId);
+            future.complete(null);
         }
-        final SignalServiceProfile encryptedProfile;
+        return future;
+    }
+
+    private <T> T awaitResult(CompletableFuture<T> future) {
         try {
-            encryptedProfile = retrieveEncryptedProfile(recipientId);
-        } finally {
-            synchronized (pendingProfileRequest) {
-                pendingProfileRequest.remove(recipientId);
-            }
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Failed to retrieve profile, ignoring: {}", e.getMessage());
+            return null;
         }
+    }
+
+    private Profile retrieveRecipientProfile(RecipientId recipientId) {
+        final var encryptedProfile = retrieveEncryptedProfile(recipientId);
         if (encryptedProfile == null) {
             return null;
         }
 
-        profile = decryptProfileIfKeyKnown(recipientId, encryptedProfile);
+        final var profile = decryptProfileIfKeyKnown(recipientId, encryptedProfile);
         account.getProfileStore().storeProfile(recipientId, profile);
 
         return profile;
@@ -262,7 +411,11 @@ public final class ProfileHelper {
         final var avatarPath = encryptedProfile.getAvatar();
         downloadProfileAvatar(recipientId, avatarPath, profileKey);
 
-        return ProfileUtils.decryptProfile(profileKey, encryptedProfile);
+        // The new avatar path is only stored after a successful download, so a failed download is retried
+        final var storedProfile = account.getProfileStore().getProfile(recipientId);
+        return Profile.newBuilder(ProfileUtils.decryptProfile(profileKey, encryptedProfile))
+                .withAvatarUrlPath(storedProfile == null ? null : storedProfile.getAvatarUrlPath())
+                .build();
     }
 
     public void downloadProfileAvatar(
@@ -270,9 +423,17 @@ public final class ProfileHelper {
     ) {
         var profile = account.getProfileStore().getProfile(recipientId);
         if (profile == null || !Objects.equals(avatarPath, profile.getAvatarUrlPath())) {
-            downloadProfileAvatar(addressResolver.resolveSignalServiceAddress(recipientId), avatarPath, profileKey);
-            var builder = profile == null ? Profile.newBuilder() : Profile.newBuilder(profile);
-            account.getProfileStore().storeProfile(recipientId, builder.withAvatarUrlPath(avatarPath).build());
+            final var address = addressResolver.resolveSignalServiceAddress(recipientId);
+            // Avatars are downloaded after all pending profile retrievals
+            try {
+                refreshExecutor.execute(new RefreshTask(Long.MAX_VALUE, () -> {
+                    if (downloadProfileAvatar(address, avatarPath, profileKey)) {
+                        account.getProfileStore().storeProfileAvatarUrlPath(recipientId, avatarPath);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Profile refresh is shut down, not downloading avatar");
+            }
         }
     }
 
@@ -332,7 +493,10 @@ public final class ProfileHelper {
         });
     }
 
-    private void downloadProfileAvatar(
+    /**
+     * @return true, if the local avatar is up to date
+     */
+    private boolean downloadProfileAvatar(
             SignalServiceAddress address, String avatarPath, ProfileKey profileKey
     ) {
         if (avatarPath == null) {
@@ -340,18 +504,21 @@ public final class ProfileHelper {
                 avatarStore.deleteProfileAvatar(address);
             } catch (IOException e) {
                 logger.warn("Failed to delete local profile avatar, ignoring: {}", e.getMessage());
+                return false;
             }
-            return;
+            return true;
         }
 
         try {
             avatarStore.storeProfileAvatar(address,
                     outputStream -> retrieveProfileAvatar(avatarPath, profileKey, outputStream));
+            return true;
         } catch (Throwable e) {
             if (e instanceof AssertionError && e.getCause() instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
             }
             logger.warn("Failed to download profile avatar, ignoring: {}", e.getMessage());
+            return false;
         }
     }
 
@@ -386,4 +553,33 @@ public final class ProfileHelper {
 
         return Optional.absent();
     }
+
+    private final class RefreshTask implements Runnable, Comparable<RefreshTask> {
+
+        private final long priority;
+        private final long sequence;
+        private final Runnable runnable;
+
+        private RefreshTask(final long priority, final Runnable runnable) {
+            this.priority = priority;
+            this.sequence = refreshTaskSequence.getAndIncrement();
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            isRefreshThread.set(true);
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                logger.warn("Profile refresh task failed, ignoring: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public int compareTo(final RefreshTask o) {
+            final var result = Long.compare(priority, o.priority);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
 }
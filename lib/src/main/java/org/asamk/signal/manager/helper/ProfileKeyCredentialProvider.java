@@ -3,7 +3,10 @@ package org.asamk.signal.manager.helper;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.signal.zkgroup.profiles.ProfileKeyCredential;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface ProfileKeyCredentialProvider {
 
-    ProfileKeyCredential getProfileKeyCredential(RecipientId recipientId);
+    Map<RecipientId, ProfileKeyCredential> getProfileKeyCredentials(Collection<RecipientId> recipientIds);
 }
@@ -0,0 +1,121 @@
+package org.asamk.signal.manager.helper;
+
+import org.asamk.signal.manager.api.RecipientIdentifier;
+import org.asamk.signal.manager.storage.recipients.RecipientAddress;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
+import org.asamk.signal.manager.storage.recipients.RecipientStore;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches resolved addresses and display names of recipients, which are looked up several times for every received
+ * message.
+ * <p>
+ * Entries are removed when the contact, profile or address of their recipient changes. They also expire after
+ * {@link #MAX_AGE} milliseconds, so outdated profiles are still refreshed when their name is requested.
+ */
+public class RecipientCache implements RecipientStore.RecipientChangeListener {
+
+    private final static long MAX_AGE = 10 * 60 * 1000;
+
+    private final Map<RecipientAddress, Entry<SignalServiceAddress>> addresses = new ConcurrentHashMap<>();
+    private final Map<RecipientIdentifier.Single, Entry<String>> names = new ConcurrentHashMap<>();
+    // Incremented on every change, values computed during a change are not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param resolver resolves the recipient, the address is only cached if it has a uuid
+     */
+    public SignalServiceAddress getAddress(
+            final SignalServiceAddress address,
+            final Function<SignalServiceAddress, Resolved<SignalServiceAddress>> resolver
+    ) {
+        final var key = new RecipientAddress(address);
+        final var entry = addresses.get(key);
+        if (entry != null && !entry.isExpired()) {
+            return entry.value;
+        }
+
+        final var currentGeneration = generation.get();
+        final var resolved = resolver.apply(address);
+        if (!UuidUtil.UNKNOWN_UUID.equals(resolved.value.getUuid())) {
+            put(addresses, key, resolved, currentGeneration);
+        }
+        return resolved.value;
+    }
+
+    /**
+     * @param resolver resolves the recipient, returns null if the recipient isn't registered
+     */
+    public String getName(
+            final RecipientIdentifier.Single recipient,
+            final Function<RecipientIdentifier.Single, Resolved<String>> resolver
+    ) {
+        final var entry = names.get(recipient);
+        if (entry != null && !entry.isExpired()) {
+            return entry.value;
+        }
+
+        final var currentGeneration = generation.get();
+        final var resolved = resolver.apply(recipient);
+        if (resolved == null) {
+            return null;
+        }
+        put(names, recipient, resolved, currentGeneration);
+        return resolved.value;
+    }
+
+    @Override
+    public void recipientChanged(final RecipientId recipientId, final boolean addressChanged) {
+        generation.incrementAndGet();
+        if (addressChanged) {
+            // Other addresses may resolve to this recipient now
+            addresses.clear();
+            names.clear();
+        } else {
+            addresses.values().removeIf(entry -> recipientId.equals(entry.recipientId));
+            names.values().removeIf(entry -> recipientId.equals(entry.recipientId));
+        }
+    }
+
+    private <K, V> void put(Map<K, Entry<V>> cache, K key, Resolved<V> resolved, long expectedGeneration) {
+        final var entry = new Entry<>(resolved.recipientId, resolved.value);
+        cache.put(key, entry);
+        if (generation.get() != expectedGeneration) {
+            // The recipient may have changed while resolving it
+            cache.remove(key, entry);
+        }
+    }
+
+    public static class Resolved<T> {
+
+        private final RecipientId recipientId;
+        private final T value;
+
+        public Resolved(final RecipientId recipientId, final T value) {
+            this.recipientId = recipientId;
+            this.value = value;
+        }
+    }
+
+    private static class Entry<T> {
+
+        private final RecipientId recipientId;
+        private final T value;
+        private final long createdAt = System.currentTimeMillis();
+
+        private Entry(final RecipientId recipientId, final T value) {
+            this.recipientId = recipientId;
+            this.value = value;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - createdAt > MAX_AGE;
+        }
+    }
+}
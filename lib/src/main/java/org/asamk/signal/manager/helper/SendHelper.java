@@ -9,32 +9,39 @@ import org.asamk.signal.manager.groups.GroupUtils;
 import org.asamk.signal.manager.groups.NotAGroupMemberException;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfo;
+import org.asamk.signal.manager.storage.groups.GroupInfoV2;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.storage.recipients.RecipientResolver;
+import org.asamk.signal.manager.storage.recipients.RecipientStore;
+import org.signal.zkgroup.profiles.ProfileKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.libsignal.protocol.DecryptionErrorMessage;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
 import org.whispersystems.signalservice.api.crypto.ContentHint;
+import org.whispersystems.signalservice.api.crypto.UnidentifiedAccessPair;
 import org.whispersystems.signalservice.api.messages.SendMessageResult;
 import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
 import org.whispersystems.signalservice.api.messages.SignalServiceReceiptMessage;
 import org.whispersystems.signalservice.api.messages.SignalServiceTypingMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SentTranscriptMessage;
 import org.whispersystems.signalservice.api.messages.multidevice.SignalServiceSyncMessage;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.push.exceptions.ProofRequiredException;
 import org.whispersystems.signalservice.api.push.exceptions.RateLimitException;
 import org.whispersystems.signalservice.api.push.exceptions.UnregisteredUserException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-public class SendHelper {
+public class SendHelper implements RecipientStore.RecipientChangeListener {
 
     private final static Logger logger = LoggerFactory.getLogger(SendHelper.class);
 
@@ -47,6 +54,10 @@ public class SendHelper {
     private final GroupProvider groupProvider;
     private final RecipientRegistrationRefresher recipientRegistrationRefresher;
 
+    private final Map<GroupId, GroupSendPlan> groupSendPlans = new HashMap<>();
+    // Incremented for every recipient change, so a plan built from outdated recipient data isn't cached
+    private long recipientsGeneration = 0;
+
     public SendHelper(
             final SignalAccount account,
             final SignalDependencies dependencies,
@@ -116,7 +127,14 @@ public class SendHelper {
             }
         }
 
-        return sendGroupMessage(message, recipients);
+        final var plan = getGroupSendPlan(g, recipients);
+        List<SendMessageResult> result = sendGroupMessageInternal(message, plan.addresses, plan.accessPairs);
+
+        for (var r : result) {
+            handlePossibleIdentityFailure(r);
+        }
+
+        return result;
     }
 
     /**
@@ -241,11 +259,8 @@ public class SendHelper {
             throw new GroupSendingNotAllowedException(groupId, g.getTitle());
         }
         final var messageSender = dependencies.getMessageSender();
-        final var recipientIdList = new ArrayList<>(g.getMembersWithout(account.getSelfRecipientId()));
-        final var addresses = recipientIdList.stream()
-                .map(addressResolver::resolveSignalServiceAddress)
-                .collect(Collectors.toList());
-        messageSender.sendTyping(addresses, unidentifiedAccessHelper.getAccessFor(recipientIdList), message, null);
+        final var plan = getGroupSendPlan(g, g.getMembersWithout(account.getSelfRecipientId()));
+        messageSender.sendTyping(plan.addresses, plan.accessPairs, message, null);
     }
 
     private GroupInfo getGroupForSending(GroupId groupId) throws GroupNotFoundException, NotAGroupMemberException {
@@ -259,19 +274,94 @@ public class SendHelper {
         return g;
     }
 
+    /**
+     * Returns the addresses and unidentified access pairs for sending to the group members.
+     * The plan is reused as long as the group revision, the members and the own profile key are unchanged, plans
+     * with a member whose stored recipient data changes are discarded by the recipient store's change listener.
+     * Plans without a sender certificate are not reused, so the next message is sent with unidentified access again.
+     */
+    private GroupSendPlan getGroupSendPlan(final GroupInfo g, final Set<RecipientId> recipientIds) {
+        final var revision = getGroupRevision(g);
+        // The own unidentified access key is derived from the profile key
+        final var selfProfileKey = account.getProfileKey();
+        final long generation;
+        synchronized (groupSendPlans) {
+            final var plan = groupSendPlans.get(g.getGroupId());
+            if (plan != null && plan.isValid(revision, recipientIds, selfProfileKey)) {
+                return plan;
+            }
+            generation = recipientsGeneration;
+        }
+
+        final var recipientIdList = new ArrayList<>(recipientIds);
+        final var addresses = recipientIdList.stream()
+                .map(addressResolver::resolveSignalServiceAddress)
+                .collect(Collectors.toList());
+        final var senderCertificate = unidentifiedAccessHelper.getSenderCertificate();
+        final var plan = new GroupSendPlan(revision,
+                selfProfileKey,
+                recipientIdList,
+                addresses,
+                unidentifiedAccessHelper.getAccessFor(recipientIdList, senderCertificate));
+        synchronized (groupSendPlans) {
+            if (senderCertificate == null || generation != recipientsGeneration) {
+                groupSendPlans.remove(g.getGroupId());
+            } else {
+                groupSendPlans.put(g.getGroupId(), plan);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Discards the send plans that contain the changed recipient, called while the recipient store is locked.
+     */
+    @Override
+    public void recipientChanged(final RecipientId recipientId, final boolean addressChanged) {
+        synchronized (groupSendPlans) {
+            recipientsGeneration++;
+            groupSendPlans.values().removeIf(plan -> plan.recipientIds.contains(recipientId));
+        }
+    }
+
+    /**
+     * Removes the cached send plan, e.g. after the group was left or deleted.
+     */
+    public void removeGroupSendPlan(final GroupId groupId) {
+        synchronized (groupSendPlans) {
+            groupSendPlans.remove(groupId);
+        }
+    }
+
+    private static int getGroupRevision(final GroupInfo g) {
+        if (g instanceof GroupInfoV2) {
+            final var group = ((GroupInfoV2) g).getGroup();
+            return group == null ? -1 : group.getRevision();
+        }
+        return 0;
+    }
+
     private List<SendMessageResult> sendGroupMessageInternal(
             final SignalServiceDataMessage message, final Set<RecipientId> recipientIds
+    ) throws IOException {
+        final var recipientIdList = new ArrayList<>(recipientIds);
+        final var addresses = recipientIdList.stream()
+                .map(addressResolver::resolveSignalServiceAddress)
+                .collect(Collectors.toList());
+        return sendGroupMessageInternal(message, addresses, unidentifiedAccessHelper.getAccessFor(recipientIdList));
+    }
+
+    private List<SendMessageResult> sendGroupMessageInternal(
+            final SignalServiceDataMessage message,
+            final List<SignalServiceAddress> addresses,
+            final List<Optional<UnidentifiedAccessPair>> accessPairs
     ) throws IOException {
         try {
             var messageSender = dependencies.getMessageSender();
             // isRecipientUpdate is true if we've already sent this message to some recipients in the past, otherwise false.
             final var isRecipientUpdate = false;
-            final var recipientIdList = new ArrayList<>(recipientIds);
-            final var addresses = recipientIdList.stream()
-                    .map(addressResolver::resolveSignalServiceAddress)
-                    .collect(Collectors.toList());
             return messageSender.sendDataMessage(addresses,
-                    unidentifiedAccessHelper.getAccessFor(recipientIdList),
+                    accessPairs,
                     isRecipientUpdate,
                     ContentHint.DEFAULT,
                     message,
@@ -333,4 +423,42 @@ public class SendHelper {
             identityFailureHandler.handleIdentityFailure(recipientId, r.getIdentityFailure());
         }
     }
+
+    private static final class GroupSendPlan {
+
+        // The plan is rebuilt regularly, so it doesn't outlive the sender certificate in the access pairs
+        private final static long MAX_AGE = 60 * 60 * 1000;
+
+        private final long createdTimestamp = System.currentTimeMillis();
+        private final int revision;
+        private final ProfileKey selfProfileKey;
+        private final Set<RecipientId> recipientIds;
+        private final List<RecipientId> recipientIdList;
+        private final List<SignalServiceAddress> addresses;
+        private final List<Optional<UnidentifiedAccessPair>> accessPairs;
+
+        private GroupSendPlan(
+                final int revision,
+                final ProfileKey selfProfileKey,
+                final List<RecipientId> recipientIdList,
+                final List<SignalServiceAddress> addresses,
+                final List<Optional<UnidentifiedAccessPair>> accessPairs
+        ) {
+            this.revision = revision;
+            this.selfProfileKey = selfProfileKey;
+            this.recipientIds = Set.copyOf(recipientIdList);
+            this.recipientIdList = recipientIdList;
+            this.addresses = addresses;
+            this.accessPairs = accessPairs;
+        }
+
+        private boolean isValid(
+                final int revision, final Set<RecipientId> recipientIds, final ProfileKey selfProfileKey
+        ) {
+            return System.currentTimeMillis() - createdTimestamp < MAX_AGE
+                    && this.revision == revision
+                    && Objects.equals(this.selfProfileKey, selfProfileKey)
+                    && this.recipientIds.equals(recipientIds);
+        }
+    }
 }
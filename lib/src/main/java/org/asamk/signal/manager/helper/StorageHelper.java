@@ -5,6 +5,7 @@ import org.asamk.signal.manager.TrustLevel;
 import org.asamk.signal.manager.groups.GroupId;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.recipients.Contact;
+import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.signal.zkgroup.InvalidInputException;
 import org.signal.zkgroup.groups.GroupMasterKey;
 import org.signal.zkgroup.profiles.ProfileKey;
@@ -14,36 +15,48 @@ import org.whispersystems.libsignal.IdentityKey;
 import org.whispersystems.libsignal.InvalidKeyException;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.storage.SignalAccountRecord;
+import org.whispersystems.signalservice.api.storage.SignalContactRecord;
 import org.whispersystems.signalservice.api.storage.SignalStorageManifest;
 import org.whispersystems.signalservice.api.storage.SignalStorageRecord;
 import org.whispersystems.signalservice.api.storage.StorageId;
 import org.whispersystems.signalservice.internal.storage.protos.ManifestRecord;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class StorageHelper {
 
     private final static Logger logger = LoggerFactory.getLogger(StorageHelper.class);
 
+    private final static int STORAGE_READ_BATCH_SIZE = 1000;
+
     private final SignalAccount account;
     private final SignalDependencies dependencies;
     private final GroupHelper groupHelper;
     private final ProfileHelper profileHelper;
+    private final ExecutorService executor;
 
     public StorageHelper(
             final SignalAccount account,
             final SignalDependencies dependencies,
             final GroupHelper groupHelper,
-            final ProfileHelper profileHelper
+            final ProfileHelper profileHelper,
+            final ExecutorService executor
     ) {
         this.account = account;
         this.dependencies = dependencies;
         this.groupHelper = groupHelper;
         this.profileHelper = profileHelper;
+        this.executor = executor;
     }
 
     public void readDataFromStorage() throws IOException {
@@ -62,66 +75,89 @@ public class StorageHelper {
             return;
         }
 
-        account.setStorageManifestVersion(manifest.get().getVersion());
+        // Records are immutable, a changed record gets a new storage id, so only new ids need to be read
+        final var appliedStorageIds = account.getStorageManifestVersion() == -1
+                ? Set.<StorageId>of()
+                : account.getStorageIdStore().getStorageIds();
 
-        readAccountRecord(manifest.get());
+        final var accountId = manifest.get().getAccountStorageId();
+        if (!accountId.isPresent() || !appliedStorageIds.contains(accountId.get())) {
+            readAccountRecord(manifest.get());
+        }
 
-        final var storageIds = manifest.get()
-                .getStorageIds()
-                .stream()
+        final var storageIds = Set.copyOf(manifest.get().getStorageIds());
+        final var newStorageIds = storageIds.stream()
                 .filter(id -> !id.isUnknown() && id.getType() != ManifestRecord.Identifier.Type.ACCOUNT_VALUE)
+                .filter(id -> !appliedStorageIds.contains(id))
                 .collect(Collectors.toList());
-
-        for (final var record : getSignalStorageRecords(storageIds)) {
+        // Removed ids belong to records that were replaced by a new record or deleted. Deletions are not applied
+        // locally, the stored ids don't map to contacts or groups, so only the new records are read.
+        logger.debug("Reading {} new storage records, ignoring {} removed records",
+                newStorageIds.size(),
+                appliedStorageIds.stream().filter(id -> !storageIds.contains(id)).count());
+
+        final var contactRecords = new ArrayList<SignalContactRecord>();
+        for (final var record : getSignalStorageRecords(newStorageIds)) {
             if (record.getType() == ManifestRecord.Identifier.Type.GROUPV2_VALUE) {
                 readGroupV2Record(record);
             } else if (record.getType() == ManifestRecord.Identifier.Type.GROUPV1_VALUE) {
                 readGroupV1Record(record);
-            } else if (record.getType() == ManifestRecord.Identifier.Type.CONTACT_VALUE) {
-                readContactRecord(record);
+            } else if (record.getType() == ManifestRecord.Identifier.Type.CONTACT_VALUE
+                    && record.getContact().isPresent()) {
+                contactRecords.add(record.getContact().get());
             }
         }
-    }
-
-    private void readContactRecord(final SignalStorageRecord record) {
-        if (record == null || !record.getContact().isPresent()) {
-            return;
-        }
+        readContactRecords(contactRecords);
 
-        final var contactRecord = record.getContact().get();
-        final var address = contactRecord.getAddress();
+        account.getStorageIdStore().setStorageIds(storageIds);
+        account.setStorageManifestVersion(manifest.get().getVersion());
+    }
 
-        final var recipientId = account.getRecipientStore().resolveRecipient(address);
-        final var contact = account.getContactStore().getContact(recipientId);
-        if (contactRecord.getGivenName().isPresent() || contactRecord.getFamilyName().isPresent() || (
-                (contact == null || !contact.isBlocked()) && contactRecord.isBlocked()
-        )) {
-            final var newContact = (contact == null ? Contact.newBuilder() : Contact.newBuilder(contact)).withBlocked(
-                    contactRecord.isBlocked())
-                    .withName((contactRecord.getGivenName().or("") + " " + contactRecord.getFamilyName().or("")).trim())
-                    .build();
-            account.getContactStore().storeContact(recipientId, newContact);
-        }
+    private void readContactRecords(final List<SignalContactRecord> contactRecords) {
+        final var recipientIds = new ArrayList<RecipientId>(contactRecords.size());
+        // Apply all contacts to the recipient store at once, so it's only saved once
+        account.getRecipientStore().batch(tx -> {
+            for (var contactRecord : contactRecords) {
+                final var recipientId = tx.resolveRecipient(contactRecord.getAddress());
+                recipientIds.add(recipientId);
+                final var contact = tx.getContact(recipientId);
+                if (contactRecord.getGivenName().isPresent() || contactRecord.getFamilyName().isPresent() || (
+                        (contact == null || !contact.isBlocked()) && contactRecord.isBlocked()
+                )) {
+                    final var builder = contact == null ? Contact.newBuilder() : Contact.newBuilder(contact);
+                    final var newContact = builder.withBlocked(contactRecord.isBlocked())
+                            .withName((contactRecord.getGivenName().or("") + " " + contactRecord.getFamilyName()
+                                    .or("")).trim())
+                            .build();
+                    tx.storeContact(recipientId, newContact);
+                }
 
-        if (contactRecord.getProfileKey().isPresent()) {
-            try {
-                final var profileKey = new ProfileKey(contactRecord.getProfileKey().get());
-                account.getProfileStore().storeProfileKey(recipientId, profileKey);
-            } catch (InvalidInputException e) {
-                logger.warn("Received invalid contact profile key from storage");
+                if (contactRecord.getProfileKey().isPresent()) {
+                    try {
+                        final var profileKey = new ProfileKey(contactRecord.getProfileKey().get());
+                        tx.storeProfileKey(recipientId, profileKey);
+                    } catch (InvalidInputException e) {
+                        logger.warn("Received invalid contact profile key from storage");
+                    }
+                }
             }
-        }
-        if (contactRecord.getIdentityKey().isPresent()) {
-            try {
-                final var identityKey = new IdentityKey(contactRecord.getIdentityKey().get());
-                account.getIdentityKeyStore().saveIdentity(recipientId, identityKey, new Date());
-
-                final var trustLevel = TrustLevel.fromIdentityState(contactRecord.getIdentityState());
-                if (trustLevel != null) {
-                    account.getIdentityKeyStore().setIdentityTrustLevel(recipientId, identityKey, trustLevel);
+        });
+
+        for (var i = 0; i < contactRecords.size(); i++) {
+            final var contactRecord = contactRecords.get(i);
+            final var recipientId = recipientIds.get(i);
+            if (contactRecord.getIdentityKey().isPresent()) {
+                try {
+                    final var identityKey = new IdentityKey(contactRecord.getIdentityKey().get());
+                    account.getIdentityKeyStore().saveIdentity(recipientId, identityKey, new Date());
+
+                    final var trustLevel = TrustLevel.fromIdentityState(contactRecord.getIdentityState());
+                    if (trustLevel != null) {
+                        account.getIdentityKeyStore().setIdentityTrustLevel(recipientId, identityKey, trustLevel);
+                    }
+                } catch (InvalidKeyException e) {
+                    logger.warn("Received invalid contact identity key from storage");
                 }
-            } catch (InvalidKeyException e) {
-                logger.warn("Received invalid contact identity key from storage");
             }
         }
     }
@@ -238,7 +274,37 @@ public class StorageHelper {
         return records.size() > 0 ? records.get(0) : null;
     }
 
+    /**
+     * Reads the records in batches, which are requested in parallel.
+     */
     private List<SignalStorageRecord> getSignalStorageRecords(final List<StorageId> storageIds) throws IOException {
+        if (storageIds.size() <= STORAGE_READ_BATCH_SIZE) {
+            return readSignalStorageRecords(storageIds);
+        }
+
+        final var futures = new ArrayList<Future<List<SignalStorageRecord>>>();
+        for (var i = 0; i < storageIds.size(); i += STORAGE_READ_BATCH_SIZE) {
+            final var batch = storageIds.subList(i, Math.min(i + STORAGE_READ_BATCH_SIZE, storageIds.size()));
+            futures.add(executor.submit(() -> readSignalStorageRecords(batch)));
+        }
+        final var records = new ArrayList<SignalStorageRecord>(storageIds.size());
+        for (var future : futures) {
+            try {
+                records.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading storage records");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return records;
+    }
+
+    private List<SignalStorageRecord> readSignalStorageRecords(final List<StorageId> storageIds) throws IOException {
         List<SignalStorageRecord> records;
         try {
             records = dependencies.getAccountManager().readStorageRecords(account.getStorageKey(), storageIds);
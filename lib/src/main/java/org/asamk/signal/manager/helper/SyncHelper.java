@@ -2,6 +2,7 @@ package org.asamk.signal.manager.helper;
 
 import org.asamk.signal.manager.AvatarStore;
 import org.asamk.signal.manager.TrustLevel;
+import org.asamk.signal.manager.groups.GroupIdV1;
 import org.asamk.signal.manager.storage.SignalAccount;
 import org.asamk.signal.manager.storage.groups.GroupInfoV1;
 import org.asamk.signal.manager.storage.recipients.Contact;
@@ -82,9 +83,10 @@ public class SyncHelper {
         try {
             try (OutputStream fos = new FileOutputStream(groupsFile)) {
                 var out = new DeviceGroupsOutputStream(fos);
-                for (var record : account.getGroupStore().getGroups()) {
-                    if (record instanceof GroupInfoV1) {
-                        var groupInfo = (GroupInfoV1) record;
+                // Only V1 groups are synced this way, so the V2 groups don't need to be loaded
+                for (var groupId : account.getGroupStore().getGroupIds()) {
+                    if (groupId instanceof GroupIdV1) {
+                        var groupInfo = (GroupInfoV1) account.getGroupStore().getGroup(groupId);
                         out.write(new DeviceGroup(groupInfo.getGroupId().serialize(),
                                 Optional.fromNullable(groupInfo.name),
                                 groupInfo.getMembers()
@@ -199,9 +201,9 @@ public class SyncHelper {
             }
         }
         var groupIds = new ArrayList<byte[]>();
-        for (var record : account.getGroupStore().getGroups()) {
-            if (record.isBlocked()) {
-                groupIds.add(record.getGroupId().serialize());
+        for (var summary : account.getGroupStore().getGroupSummaries()) {
+            if (summary.isBlocked()) {
+                groupIds.add(summary.getGroupId().serialize());
             }
         }
         sendHelper.sendSyncMessage(SignalServiceSyncMessage.forBlocked(new BlockedListMessage(addresses, groupIds)));
@@ -233,6 +235,7 @@ public class SyncHelper {
 
     public void handleSyncDeviceContacts(final InputStream input) throws IOException {
         final var s = new DeviceContactsInputStream(input);
+        final var contacts = new ArrayList<DeviceContact>();
         DeviceContact c;
         while (true) {
             try {
@@ -248,39 +251,50 @@ public class SyncHelper {
             if (c == null) {
                 break;
             }
-            if (c.getAddress().matches(account.getSelfAddress()) && c.getProfileKey().isPresent()) {
-                account.setProfileKey(c.getProfileKey().get());
-            }
-            final var recipientId = account.getRecipientStore().resolveRecipientTrusted(c.getAddress());
-            var contact = account.getContactStore().getContact(recipientId);
-            final var builder = contact == null ? Contact.newBuilder() : Contact.newBuilder(contact);
-            if (c.getName().isPresent()) {
-                builder.withName(c.getName().get());
+            // The avatar is streamed from the sync input, so it must be read before the next contact
+            if (c.getAvatar().isPresent()) {
+                downloadContactAvatar(c.getAvatar().get(), c.getAddress());
             }
-            if (c.getColor().isPresent()) {
-                builder.withColor(c.getColor().get());
+            contacts.add(c);
+        }
+
+        // Apply all contacts to the recipient store at once, so it's only saved once
+        account.getRecipientStore().batch(tx -> {
+            for (var deviceContact : contacts) {
+                final var recipientId = tx.resolveRecipientTrusted(deviceContact.getAddress());
+                var contact = tx.getContact(recipientId);
+                final var builder = contact == null ? Contact.newBuilder() : Contact.newBuilder(contact);
+                if (deviceContact.getName().isPresent()) {
+                    builder.withName(deviceContact.getName().get());
+                }
+                if (deviceContact.getColor().isPresent()) {
+                    builder.withColor(deviceContact.getColor().get());
+                }
+                if (deviceContact.getProfileKey().isPresent()) {
+                    tx.storeProfileKey(recipientId, deviceContact.getProfileKey().get());
+                }
+                if (deviceContact.getExpirationTimer().isPresent()) {
+                    builder.withMessageExpirationTime(deviceContact.getExpirationTimer().get());
+                }
+                builder.withBlocked(deviceContact.isBlocked());
+                builder.withArchived(deviceContact.isArchived());
+                tx.storeContact(recipientId, builder.build());
             }
-            if (c.getProfileKey().isPresent()) {
-                account.getProfileStore().storeProfileKey(recipientId, c.getProfileKey().get());
+        });
+
+        for (var deviceContact : contacts) {
+            if (deviceContact.getAddress().matches(account.getSelfAddress())
+                    && deviceContact.getProfileKey().isPresent()) {
+                account.setProfileKey(deviceContact.getProfileKey().get());
             }
-            if (c.getVerified().isPresent()) {
-                final var verifiedMessage = c.getVerified().get();
+            if (deviceContact.getVerified().isPresent()) {
+                final var verifiedMessage = deviceContact.getVerified().get();
                 account.getIdentityKeyStore()
                         .setIdentityTrustLevel(account.getRecipientStore()
                                         .resolveRecipientTrusted(verifiedMessage.getDestination()),
                                 verifiedMessage.getIdentityKey(),
                                 TrustLevel.fromVerifiedState(verifiedMessage.getVerified()));
             }
-            if (c.getExpirationTimer().isPresent()) {
-                builder.withMessageExpirationTime(c.getExpirationTimer().get());
-            }
-            builder.withBlocked(c.isBlocked());
-            builder.withArchived(c.isArchived());
-            account.getContactStore().storeContact(recipientId, builder.build());
-
-            if (c.getAvatar().isPresent()) {
-                downloadContactAvatar(c.getAvatar().get(), c.getAddress());
-            }
         }
     }
 
@@ -76,13 +76,36 @@ public class UnidentifiedAccessHelper {
     }
 
     public List<Optional<UnidentifiedAccessPair>> getAccessFor(List<RecipientId> recipients) {
-        return recipients.stream().map(this::getAccessFor).collect(Collectors.toList());
+        return getAccessFor(recipients, senderCertificateProvider.getSenderCertificate());
+    }
+
+    /**
+     * @param selfUnidentifiedAccessCertificate the sender certificate, if null no access pairs are created
+     */
+    public List<Optional<UnidentifiedAccessPair>> getAccessFor(
+            List<RecipientId> recipients, byte[] selfUnidentifiedAccessCertificate
+    ) {
+        var selfUnidentifiedAccessKey = getSelfUnidentifiedAccessKey();
+
+        return recipients.stream()
+                .map(r -> getAccessFor(r, selfUnidentifiedAccessKey, selfUnidentifiedAccessCertificate))
+                .collect(Collectors.toList());
+    }
+
+    public byte[] getSenderCertificate() {
+        return senderCertificateProvider.getSenderCertificate();
     }
 
     public Optional<UnidentifiedAccessPair> getAccessFor(RecipientId recipient) {
+        return getAccessFor(recipient,
+                getSelfUnidentifiedAccessKey(),
+                senderCertificateProvider.getSenderCertificate());
+    }
+
+    private Optional<UnidentifiedAccessPair> getAccessFor(
+            RecipientId recipient, byte[] selfUnidentifiedAccessKey, byte[] selfUnidentifiedAccessCertificate
+    ) {
         var recipientUnidentifiedAccessKey = getTargetUnidentifiedAccessKey(recipient);
-        var selfUnidentifiedAccessKey = getSelfUnidentifiedAccessKey();
-        var selfUnidentifiedAccessCertificate = senderCertificateProvider.getSenderCertificate();
 
         if (recipientUnidentifiedAccessKey == null
                 || selfUnidentifiedAccessKey == null
@@ -6,13 +6,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.asamk.signal.manager.TrustLevel;
 import org.asamk.signal.manager.configuration.ConfigurationStore;
 import org.asamk.signal.manager.groups.GroupId;
+import org.asamk.signal.manager.storage.cds.CdsCacheStore;
 import org.asamk.signal.manager.storage.contacts.ContactsStore;
 import org.asamk.signal.manager.storage.contacts.LegacyJsonContactsStore;
 import org.asamk.signal.manager.storage.groups.GroupInfoV1;
 import org.asamk.signal.manager.storage.groups.GroupStore;
 import org.asamk.signal.manager.storage.identities.IdentityKeyStore;
 import org.asamk.signal.manager.storage.identities.TrustNewIdentity;
+import org.asamk.signal.manager.storage.manifest.StorageIdStore;
 import org.asamk.signal.manager.storage.messageCache.MessageCache;
+import org.asamk.signal.manager.storage.messageCache.PendingMessageStore;
 import org.asamk.signal.manager.storage.prekeys.PreKeyStore;
 import org.asamk.signal.manager.storage.prekeys.SignedPreKeyStore;
 import org.asamk.signal.manager.storage.profiles.LegacyProfileStore;
@@ -108,6 +111,9 @@ public class SignalAccount implements Closeable {
     private ConfigurationStore.Storage configurationStoreStorage;
 
     private MessageCache messageCache;
+    private PendingMessageStore pendingMessageStore;
+    private CdsCacheStore cdsCacheStore;
+    private StorageIdStore storageIdStore;
 
     private SignalAccount(final FileChannel fileChannel, final FileLock lock) {
         this.fileChannel = fileChannel;
@@ -160,6 +166,7 @@ public class SignalAccount implements Closeable {
         account.initStores(dataPath, identityKey, registrationId, trustNewIdentity);
         account.groupStore = new GroupStore(getGroupCachePath(dataPath, username),
                 account.recipientStore,
+                account::getSelfRecipientId,
                 account::saveGroupStore);
         account.stickerStore = new StickerStore(account::saveStickerStore);
         account.configurationStore = new ConfigurationStore(account::saveConfigurationStore);
@@ -200,6 +207,9 @@ public class SignalAccount implements Closeable {
                 this::isMultiDevice);
 
         messageCache = new MessageCache(getMessageCachePath(dataPath, username));
+        pendingMessageStore = new PendingMessageStore(getPendingMessagesPath(dataPath, username));
+        cdsCacheStore = CdsCacheStore.load(getCdsCacheStoreFile(dataPath, username));
+        storageIdStore = StorageIdStore.load(getStorageIdStoreFile(dataPath, username));
     }
 
     public static SignalAccount createOrUpdateLinkedAccount(
@@ -269,6 +279,7 @@ public class SignalAccount implements Closeable {
         account.initStores(dataPath, identityKey, registrationId, trustNewIdentity);
         account.groupStore = new GroupStore(getGroupCachePath(dataPath, username),
                 account.recipientStore,
+                account::getSelfRecipientId,
                 account::saveGroupStore);
         account.stickerStore = new StickerStore(account::saveStickerStore);
         account.configurationStore = new ConfigurationStore(account::saveConfigurationStore);
@@ -341,6 +352,10 @@ public class SignalAccount implements Closeable {
         return new File(getUserPath(dataPath, username), "msg-cache");
     }
 
+    private static File getPendingMessagesPath(File dataPath, String username) {
+        return new File(getUserPath(dataPath, username), "pending-messages");
+    }
+
     private static File getGroupCachePath(File dataPath, String username) {
         return new File(getUserPath(dataPath, username), "group-cache");
     }
@@ -373,6 +388,14 @@ public class SignalAccount implements Closeable {
         return new File(getUserPath(dataPath, username), "recipients-store");
     }
 
+    private static File getCdsCacheStoreFile(File dataPath, String username) {
+        return new File(getUserPath(dataPath, username), "cds-cache-store");
+    }
+
+    private static File getStorageIdStoreFile(File dataPath, String username) {
+        return new File(getUserPath(dataPath, username), "storage-id-store");
+    }
+
     public static boolean userExists(File dataPath, String username) {
         if (username == null) {
             return false;
@@ -484,9 +507,13 @@ public class SignalAccount implements Closeable {
             groupStore = GroupStore.fromStorage(groupStoreStorage,
                     getGroupCachePath(dataPath, username),
                     recipientStore,
+                    this::getSelfRecipientId,
                     this::saveGroupStore);
         } else {
-            groupStore = new GroupStore(getGroupCachePath(dataPath, username), recipientStore, this::saveGroupStore);
+            groupStore = new GroupStore(getGroupCachePath(dataPath, username),
+                    recipientStore,
+                    this::getSelfRecipientId,
+                    this::saveGroupStore);
         }
 
         if (rootNode.hasNonNull("stickerStore")) {
@@ -786,6 +813,10 @@ public class SignalAccount implements Closeable {
         return signalProtocolStore;
     }
 
+    public PreKeyStore getPreKeyStore() {
+        return preKeyStore;
+    }
+
     public SessionStore getSessionStore() {
         return sessionStore;
     }
@@ -818,6 +849,14 @@ public class SignalAccount implements Closeable {
         return senderKeyStore;
     }
 
+    public CdsCacheStore getCdsCacheStore() {
+        return cdsCacheStore;
+    }
+
+    public StorageIdStore getStorageIdStore() {
+        return storageIdStore;
+    }
+
     public ConfigurationStore getConfigurationStore() {
         return configurationStore;
     }
@@ -826,6 +865,10 @@ public class SignalAccount implements Closeable {
         return messageCache;
     }
 
+    public PendingMessageStore getPendingMessageStore() {
+        return pendingMessageStore;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -1014,6 +1057,9 @@ public class SignalAccount implements Closeable {
 
     @Override
     public void close() throws IOException {
+        if (cdsCacheStore != null) {
+            cdsCacheStore.flush();
+        }
         synchronized (fileChannel) {
             try {
                 lock.close();
@@ -0,0 +1,210 @@
+package org.asamk.signal.manager.storage.cds;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.manager.storage.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the results of contact discovery lookups, including numbers that are not registered.
+ * <p>
+ * Changes are written to the file at most every {@link #SAVE_INTERVAL} milliseconds and when the store is closed,
+ * expired entries are removed when loading and saving.
+ */
+public class CdsCacheStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(CdsCacheStore.class);
+
+    private final static long REGISTERED_MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+    private final static long UNREGISTERED_MAX_AGE = 60L * 60 * 1000;
+    private final static long SAVE_INTERVAL = 10 * 1000;
+
+    private final Map<String, Entry> entries;
+
+    private final ObjectMapper objectMapper;
+    private final File file;
+
+    private boolean modified = false;
+    private long lastSaveTimestamp = 0;
+
+    public static CdsCacheStore load(final File file) throws IOException {
+        final var objectMapper = Utils.createStorageObjectMapper();
+        try (var inputStream = new FileInputStream(file)) {
+            final var storage = objectMapper.readValue(inputStream, Storage.class);
+            final var entries = new HashMap<String, Entry>();
+            final var now = System.currentTimeMillis();
+            for (final var entry : storage.entries) {
+                final var uuid = entry.uuid == null ? null : UuidUtil.parseOrNull(entry.uuid);
+                final var cacheEntry = new Entry(uuid, entry.lastCheckedTimestamp);
+                if (!cacheEntry.isExpired(now)) {
+                    entries.put(entry.number, cacheEntry);
+                }
+            }
+
+            return new CdsCacheStore(entries, objectMapper, file);
+        } catch (FileNotFoundException e) {
+            logger.debug("Creating new cds cache store.");
+            return new CdsCacheStore(new HashMap<>(), objectMapper, file);
+        }
+    }
+
+    private CdsCacheStore(final Map<String, Entry> entries, final ObjectMapper objectMapper, final File file) {
+        this.entries = entries;
+        this.objectMapper = objectMapper;
+        this.file = file;
+    }
+
+    /**
+     * @return the cached lookup result or null, if the number is unknown or the cached result is outdated.
+     */
+    public Entry getEntry(String number) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(number);
+        }
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param numbers         all numbers that were looked up
+     * @param registeredUsers the lookup result, numbers missing from it are cached as unregistered
+     */
+    public void storeLookupResult(Collection<String> numbers, Map<String, UUID> registeredUsers) {
+        final var now = System.currentTimeMillis();
+        synchronized (entries) {
+            for (var number : numbers) {
+                entries.put(number, new Entry(registeredUsers.get(number), now));
+            }
+            modified = true;
+            saveIfDueLocked(now);
+        }
+    }
+
+    public void deleteEntry(String number) {
+        synchronized (entries) {
+            if (entries.remove(number) != null) {
+                modified = true;
+                saveIfDueLocked(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Writes changes that haven't been saved yet.
+     */
+    public void flush() {
+        synchronized (entries) {
+            if (modified) {
+                saveLocked(System.currentTimeMillis());
+            }
+        }
+    }
+
+    private void saveIfDueLocked(final long now) {
+        // Lookups often come in bursts, their results are combined into one write
+        if (now - lastSaveTimestamp >= SAVE_INTERVAL) {
+            saveLocked(now);
+        }
+    }
+
+    private void saveLocked(final long now) {
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        modified = false;
+        lastSaveTimestamp = now;
+        var storage = new Storage(entries.entrySet()
+                .stream()
+                .map(pair -> new Storage.Entry(pair.getKey(),
+                        pair.getValue().getUuid() == null ? null : pair.getValue().getUuid().toString(),
+                        pair.getValue().getLastCheckedTimestamp()))
+                .collect(Collectors.toList()));
+
+        // Write to memory first to prevent corrupting the file in case of serialization errors
+        try (var inMemoryOutput = new ByteArrayOutputStream()) {
+            objectMapper.writeValue(inMemoryOutput, storage);
+
+            var input = new ByteArrayInputStream(inMemoryOutput.toByteArray());
+            try (var outputStream = new FileOutputStream(file)) {
+                input.transferTo(outputStream);
+            }
+        } catch (Exception e) {
+            logger.error("Error saving cds cache store file: {}", e.getMessage());
+        }
+    }
+
+    public static final class Entry {
+
+        private final UUID uuid;
+        private final long lastCheckedTimestamp;
+
+        private Entry(final UUID uuid, final long lastCheckedTimestamp) {
+            this.uuid = uuid;
+            this.lastCheckedTimestamp = lastCheckedTimestamp;
+        }
+
+        public boolean isRegistered() {
+            return uuid != null;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public long getLastCheckedTimestamp() {
+            return lastCheckedTimestamp;
+        }
+
+        private boolean isExpired(final long now) {
+            final var maxAge = isRegistered() ? REGISTERED_MAX_AGE : UNREGISTERED_MAX_AGE;
+            return now - lastCheckedTimestamp >= maxAge;
+        }
+    }
+
+    private static class Storage {
+
+        public List<Entry> entries;
+
+        // For deserialization
+        private Storage() {
+        }
+
+        public Storage(final List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        private static class Entry {
+
+            public String number;
+            public String uuid;
+            public long lastCheckedTimestamp;
+
+            // For deserialization
+            private Entry() {
+            }
+
+            public Entry(final String number, final String uuid, final long lastCheckedTimestamp) {
+                this.number = number;
+                this.uuid = uuid;
+                this.lastCheckedTimestamp = lastCheckedTimestamp;
+            }
+        }
+    }
+}
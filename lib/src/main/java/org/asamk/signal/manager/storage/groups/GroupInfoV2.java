@@ -11,6 +11,7 @@ import org.signal.storageservice.protos.groups.local.EnabledState;
 import org.signal.zkgroup.groups.GroupMasterKey;
 import org.whispersystems.signalservice.api.util.UuidUtil;
 
+import java.lang.ref.SoftReference;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -20,7 +21,19 @@ public class GroupInfoV2 extends GroupInfo {
     private final GroupMasterKey masterKey;
 
     private boolean blocked;
-    private DecryptedGroup group; // stored as a file with hexadecimal groupId as name
+    private DecryptedGroup group; // stored as a file with base64 groupId as name
+    // Once the group is stored, it's only softly referenced and reloaded from the file when needed
+    private SoftReference<DecryptedGroup> storedGroup;
+    private GroupLoader groupLoader;
+    // Revision of the decrypted group, stored with the group so it's known without loading the group
+    private int revision = -1;
+    // Title and self membership of the group, stored with the group so groups can be listed without loading them
+    private String storedTitle;
+    private Boolean storedSelfMember;
+    // Resolved members of the current group revision
+    private MemberSets memberSets;
+    // Incremented when the member sets are discarded, so sets resolved concurrently from older data aren't published
+    private int memberSetsGeneration = 0;
     private RecipientResolver recipientResolver;
     private boolean permissionDenied;
 
@@ -33,12 +46,18 @@ public class GroupInfoV2 extends GroupInfo {
             final GroupIdV2 groupId,
             final GroupMasterKey masterKey,
             final boolean blocked,
-            final boolean permissionDenied
+            final boolean permissionDenied,
+            final int revision,
+            final String storedTitle,
+            final Boolean storedSelfMember
     ) {
         this.groupId = groupId;
         this.masterKey = masterKey;
         this.blocked = blocked;
         this.permissionDenied = permissionDenied;
+        this.revision = revision;
+        this.storedTitle = storedTitle;
+        this.storedSelfMember = storedSelfMember;
     }
 
     @Override
@@ -50,39 +69,116 @@ public class GroupInfoV2 extends GroupInfo {
         return masterKey;
     }
 
-    public void setGroup(final DecryptedGroup group, final RecipientResolver recipientResolver) {
+    public synchronized void setGroup(final DecryptedGroup group, final RecipientResolver recipientResolver) {
         if (group != null) {
             this.permissionDenied = false;
         }
         this.group = group;
+        this.storedGroup = null;
+        this.memberSets = null;
+        this.memberSetsGeneration++;
+        this.revision = group == null ? -1 : group.getRevision();
         this.recipientResolver = recipientResolver;
     }
 
-    public DecryptedGroup getGroup() {
-        return group;
+    public synchronized DecryptedGroup getGroup() {
+        if (group != null) {
+            return group;
+        }
+        var storedGroup = this.storedGroup == null ? null : this.storedGroup.get();
+        if (storedGroup == null && groupLoader != null) {
+            storedGroup = groupLoader.loadGroup(groupId);
+            if (storedGroup != null) {
+                this.storedGroup = new SoftReference<>(storedGroup);
+                this.revision = storedGroup.getRevision();
+            }
+        }
+        return storedGroup;
+    }
+
+    /**
+     * @return the revision of the decrypted group or -1 if the group is not known.
+     */
+    public synchronized int getRevision() {
+        if (revision == -1) {
+            getGroup();
+        }
+        return revision;
+    }
+
+    synchronized int getStoredRevision() {
+        return revision;
+    }
+
+    synchronized String getStoredTitle() {
+        return storedTitle;
+    }
+
+    /**
+     * @return if self is a member of the stored group or null, if it's not known without loading the group
+     */
+    synchronized Boolean getStoredSelfMember() {
+        return storedSelfMember;
+    }
+
+    synchronized void setSummary(final String title, final boolean selfMember) {
+        this.storedTitle = title;
+        this.storedSelfMember = selfMember;
+    }
+
+    /**
+     * Sets the loader used to read the decrypted group from the group cache, when it's not in memory.
+     */
+    synchronized void setGroupLoader(final GroupLoader groupLoader, final RecipientResolver recipientResolver) {
+        this.groupLoader = groupLoader;
+        if (this.recipientResolver == null) {
+            this.recipientResolver = recipientResolver;
+        }
+    }
+
+    /**
+     * Discards the cached member sets, so they are recomputed from the decrypted group on the next access.
+     */
+    synchronized void invalidateMemberSets() {
+        memberSets = null;
+        memberSetsGeneration++;
+    }
+
+    /**
+     * Called by the group store after the decrypted group has been written to the group cache,
+     * from then on it may be evicted from memory.
+     */
+    synchronized void setGroupStored() {
+        if (group != null && groupLoader != null) {
+            storedGroup = new SoftReference<>(group);
+            group = null;
+        }
     }
 
     @Override
     public String getTitle() {
-        if (this.group == null) {
+        final var group = getGroup();
+        if (group == null) {
             return null;
         }
-        return this.group.getTitle();
+        return group.getTitle();
     }
 
     @Override
     public String getDescription() {
-        if (this.group == null) {
+        final var group = getGroup();
+        if (group == null) {
             return null;
         }
-        return this.group.getDescription();
+        return group.getDescription();
     }
 
     @Override
     public GroupInviteLinkUrl getGroupInviteLink() {
-        if (this.group == null || this.group.getInviteLinkPassword().isEmpty() || (
-                this.group.getAccessControl().getAddFromInviteLink() != AccessControl.AccessRequired.ANY
-                        && this.group.getAccessControl().getAddFromInviteLink()
+        final var group = getGroup();
+        if (group == null || group.getInviteLinkPassword().isEmpty() || (
+                group.getAccessControl().getAddFromInviteLink() != AccessControl.AccessRequired.ANY
+                        && group.getAccessControl().getAddFromInviteLink()
                         != AccessControl.AccessRequired.ADMINISTRATOR
         )) {
             return null;
@@ -93,51 +189,26 @@ public class GroupInfoV2 extends GroupInfo {
 
     @Override
     public Set<RecipientId> getMembers() {
-        if (this.group == null) {
-            return Set.of();
-        }
-        return group.getMembersList()
-                .stream()
-                .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
-                .map(recipientResolver::resolveRecipient)
-                .collect(Collectors.toSet());
+        final var memberSets = getMemberSets();
+        return memberSets == null ? Set.of() : memberSets.members;
     }
 
     @Override
     public Set<RecipientId> getPendingMembers() {
-        if (this.group == null) {
-            return Set.of();
-        }
-        return group.getPendingMembersList()
-                .stream()
-                .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
-                .map(recipientResolver::resolveRecipient)
-                .collect(Collectors.toSet());
+        final var memberSets = getMemberSets();
+        return memberSets == null ? Set.of() : memberSets.pendingMembers;
     }
 
     @Override
     public Set<RecipientId> getRequestingMembers() {
-        if (this.group == null) {
-            return Set.of();
-        }
-        return group.getRequestingMembersList()
-                .stream()
-                .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
-                .map(recipientResolver::resolveRecipient)
-                .collect(Collectors.toSet());
+        final var memberSets = getMemberSets();
+        return memberSets == null ? Set.of() : memberSets.requestingMembers;
     }
 
     @Override
     public Set<RecipientId> getAdminMembers() {
-        if (this.group == null) {
-            return Set.of();
-        }
-        return group.getMembersList()
-                .stream()
-                .filter(m -> m.getRole() == Member.Role.ADMINISTRATOR)
-                .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
-                .map(recipientResolver::resolveRecipient)
-                .collect(Collectors.toSet());
+        final var memberSets = getMemberSets();
+        return memberSets == null ? Set.of() : memberSets.adminMembers;
     }
 
     @Override
@@ -152,14 +223,16 @@ public class GroupInfoV2 extends GroupInfo {
 
     @Override
     public int getMessageExpirationTime() {
-        return this.group != null && this.group.hasDisappearingMessagesTimer()
-                ? this.group.getDisappearingMessagesTimer().getDuration()
+        final var group = getGroup();
+        return group != null && group.hasDisappearingMessagesTimer()
+                ? group.getDisappearingMessagesTimer().getDuration()
                 : 0;
     }
 
     @Override
     public boolean isAnnouncementGroup() {
-        return this.group != null && this.group.getIsAnnouncementGroup() == EnabledState.ENABLED;
+        final var group = getGroup();
+        return group != null && group.getIsAnnouncementGroup() == EnabledState.ENABLED;
     }
 
     public void setPermissionDenied(final boolean permissionDenied) {
@@ -169,4 +242,71 @@ public class GroupInfoV2 extends GroupInfo {
     public boolean isPermissionDenied() {
         return permissionDenied;
     }
+
+    private MemberSets getMemberSets() {
+        final DecryptedGroup group;
+        final int generation;
+        final RecipientResolver recipientResolver;
+        synchronized (this) {
+            group = getGroup();
+            if (group == null) {
+                return null;
+            }
+            final var memberSets = this.memberSets;
+            if (memberSets != null && memberSets.revision == group.getRevision()) {
+                return memberSets;
+            }
+            generation = memberSetsGeneration;
+            recipientResolver = this.recipientResolver;
+        }
+
+        // Resolved without holding the lock, as resolving may have to wait for the recipient store
+        final var memberSets = new MemberSets(group, recipientResolver);
+        synchronized (this) {
+            // Not published if the group changed or recipients were merged in the meantime
+            if (generation == memberSetsGeneration) {
+                this.memberSets = memberSets;
+            }
+        }
+        return memberSets;
+    }
+
+    private static final class MemberSets {
+
+        private final int revision;
+        private final Set<RecipientId> members;
+        private final Set<RecipientId> pendingMembers;
+        private final Set<RecipientId> requestingMembers;
+        private final Set<RecipientId> adminMembers;
+
+        private MemberSets(final DecryptedGroup group, final RecipientResolver recipientResolver) {
+            this.revision = group.getRevision();
+            this.members = group.getMembersList()
+                    .stream()
+                    .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
+                    .map(recipientResolver::resolveRecipient)
+                    .collect(Collectors.toUnmodifiableSet());
+            this.pendingMembers = group.getPendingMembersList()
+                    .stream()
+                    .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
+                    .map(recipientResolver::resolveRecipient)
+                    .collect(Collectors.toUnmodifiableSet());
+            this.requestingMembers = group.getRequestingMembersList()
+                    .stream()
+                    .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
+                    .map(recipientResolver::resolveRecipient)
+                    .collect(Collectors.toUnmodifiableSet());
+            this.adminMembers = group.getMembersList()
+                    .stream()
+                    .filter(m -> m.getRole() == Member.Role.ADMINISTRATOR)
+                    .map(m -> UuidUtil.parseOrThrow(m.getUuid().toByteArray()))
+                    .map(recipientResolver::resolveRecipient)
+                    .collect(Collectors.toUnmodifiableSet());
+        }
+    }
+
+    interface GroupLoader {
+
+        DecryptedGroup loadGroup(GroupIdV2 groupId);
+    }
 }
@@ -14,6 +14,7 @@ import org.asamk.signal.manager.groups.GroupId;
 import org.asamk.signal.manager.groups.GroupIdV1;
 import org.asamk.signal.manager.groups.GroupIdV2;
 import org.asamk.signal.manager.groups.GroupUtils;
+import org.asamk.signal.manager.helper.SelfRecipientIdProvider;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
 import org.asamk.signal.manager.storage.recipients.RecipientId;
 import org.asamk.signal.manager.storage.recipients.RecipientResolver;
@@ -33,37 +34,61 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 public class GroupStore {
 
     private final static Logger logger = LoggerFactory.getLogger(GroupStore.class);
 
+    private final static long RECENT_GROUPS_CACHE_BYTES = 16 * 1024 * 1024;
+    private final static int WARM_UP_PARALLELISM = 4;
+
     private final File groupCachePath;
     private final Map<GroupId, GroupInfo> groups;
+    private final Map<GroupIdV2, GroupInfoV1> groupsV1ByExpectedV2Id = new HashMap<>();
+    // Keeps the most recently used decrypted groups strongly reachable up to a total serialized size,
+    // all others are only softly referenced
+    private final Map<GroupIdV2, DecryptedGroup> recentGroups = new LinkedHashMap<>(16, 0.75f, true);
+    private long recentGroupsSize = 0;
     private final RecipientResolver recipientResolver;
+    private final SelfRecipientIdProvider selfRecipientIdProvider;
     private final Saver saver;
 
     private GroupStore(
             final File groupCachePath,
             final Map<GroupId, GroupInfo> groups,
             final RecipientResolver recipientResolver,
+            final SelfRecipientIdProvider selfRecipientIdProvider,
             final Saver saver
     ) {
         this.groupCachePath = groupCachePath;
         this.groups = groups;
         this.recipientResolver = recipientResolver;
+        this.selfRecipientIdProvider = selfRecipientIdProvider;
         this.saver = saver;
+        for (var group : groups.values()) {
+            if (group instanceof GroupInfoV1) {
+                indexGroupV1Locked((GroupInfoV1) group);
+            } else if (group instanceof GroupInfoV2) {
+                ((GroupInfoV2) group).setGroupLoader(this::loadDecryptedGroup, recipientResolver);
+            }
+        }
     }
 
     public GroupStore(
-            final File groupCachePath, final RecipientResolver recipientResolver, final Saver saver
+            final File groupCachePath,
+            final RecipientResolver recipientResolver,
+            final SelfRecipientIdProvider selfRecipientIdProvider,
+            final Saver saver
     ) {
         this.groups = new HashMap<>();
         this.groupCachePath = groupCachePath;
         this.recipientResolver = recipientResolver;
+        this.selfRecipientIdProvider = selfRecipientIdProvider;
         this.saver = saver;
     }
 
@@ -71,6 +96,7 @@ public class GroupStore {
             final Storage storage,
             final File groupCachePath,
             final RecipientResolver recipientResolver,
+            final SelfRecipientIdProvider selfRecipientIdProvider,
             final Saver saver
     ) {
         final var groups = storage.groups.stream().map(g -> {
@@ -104,28 +130,56 @@ public class GroupStore {
                 throw new AssertionError("Invalid master key for group " + groupId.toBase64());
             }
 
-            return new GroupInfoV2(groupId, masterKey, g2.blocked, g2.permissionDenied);
+            return new GroupInfoV2(groupId,
+                    masterKey,
+                    g2.blocked,
+                    g2.permissionDenied,
+                    g2.revision == null ? -1 : g2.revision,
+                    g2.title,
+                    g2.member);
         }).collect(Collectors.toMap(GroupInfo::getGroupId, g -> g));
 
-        return new GroupStore(groupCachePath, groups, recipientResolver, saver);
+        return new GroupStore(groupCachePath, groups, recipientResolver, selfRecipientIdProvider, saver);
     }
 
     public void updateGroup(GroupInfo group) {
+        if (group instanceof GroupInfoV2) {
+            // Computed before taking the groups lock, as resolving self may merge recipients, which needs that lock
+            final var groupV2 = (GroupInfoV2) group;
+            groupV2.setGroupLoader(this::loadDecryptedGroup, recipientResolver);
+            final var decryptedGroup = groupV2.getGroup();
+            if (decryptedGroup != null) {
+                groupV2.setSummary(decryptedGroup.getTitle(),
+                        groupV2.isMember(selfRecipientIdProvider.getSelfRecipientId()));
+            }
+        }
+
         final Storage storage;
         synchronized (groups) {
-            groups.put(group.getGroupId(), group);
-            if (group instanceof GroupInfoV2 && ((GroupInfoV2) group).getGroup() != null) {
-                try {
-                    IOUtils.createPrivateDirectories(groupCachePath);
-                    try (var stream = new FileOutputStream(getGroupV2File(group.getGroupId()))) {
-                        ((GroupInfoV2) group).getGroup().writeTo(stream);
-                    }
-                    final var groupFileLegacy = getGroupV2FileLegacy(group.getGroupId());
-                    if (groupFileLegacy.exists()) {
-                        groupFileLegacy.delete();
+            final var previousGroup = groups.put(group.getGroupId(), group);
+            if (previousGroup instanceof GroupInfoV1) {
+                unindexGroupV1Locked((GroupInfoV1) previousGroup);
+            }
+            if (group instanceof GroupInfoV1) {
+                indexGroupV1Locked((GroupInfoV1) group);
+            } else if (group instanceof GroupInfoV2) {
+                final var groupV2 = (GroupInfoV2) group;
+                final var decryptedGroup = groupV2.getGroup();
+                if (decryptedGroup != null) {
+                    try {
+                        IOUtils.createPrivateDirectories(groupCachePath);
+                        try (var stream = new FileOutputStream(getGroupV2File(group.getGroupId()))) {
+                            decryptedGroup.writeTo(stream);
+                        }
+                        final var groupFileLegacy = getGroupV2FileLegacy(group.getGroupId());
+                        if (groupFileLegacy.exists()) {
+                            groupFileLegacy.delete();
+                        }
+                        cacheRecentGroup(groupV2.getGroupId(), decryptedGroup);
+                        groupV2.setGroupStored();
+                    } catch (IOException e) {
+                        logger.warn("Failed to cache group, ignoring: {}", e.getMessage());
                     }
-                } catch (IOException e) {
-                    logger.warn("Failed to cache group, ignoring: {}", e.getMessage());
                 }
             }
             storage = toStorageLocked();
@@ -140,9 +194,20 @@ public class GroupStore {
     public void deleteGroup(GroupId groupId) {
         final Storage storage;
         synchronized (groups) {
-            groups.remove(groupId);
+            final var group = groups.remove(groupId);
+            if (group instanceof GroupInfoV1) {
+                unindexGroupV1Locked((GroupInfoV1) group);
+            }
             storage = toStorageLocked();
         }
+        if (groupId instanceof GroupIdV2) {
+            synchronized (recentGroups) {
+                final var group = recentGroups.remove(groupId);
+                if (group != null) {
+                    recentGroupsSize -= group.getSerializedSize();
+                }
+            }
+        }
         saver.save(storage);
     }
 
@@ -167,13 +232,74 @@ public class GroupStore {
         }
     }
 
+    /**
+     * The decrypted V2 groups are loaded lazily from the group cache, when they are first accessed.
+     */
     public List<GroupInfo> getGroups() {
         synchronized (groups) {
-            final var groups = this.groups.values();
-            for (var group : groups) {
-                loadDecryptedGroupLocked(group);
+            return new ArrayList<>(groups.values());
+        }
+    }
+
+    /**
+     * Lists the groups with the metadata stored in the group store, without loading the decrypted V2 groups.
+     * Only groups stored by an older version are loaded once, their metadata is stored with the next change.
+     */
+    public List<GroupSummary> getGroupSummaries() {
+        final var selfRecipientId = selfRecipientIdProvider.getSelfRecipientId();
+        return getGroups().stream().map(group -> {
+            if (!(group instanceof GroupInfoV2)) {
+                return new GroupSummary(group.getGroupId(),
+                        group.getTitle(),
+                        group.isMember(selfRecipientId),
+                        group.isBlocked(),
+                        -1);
+            }
+
+            final var groupV2 = (GroupInfoV2) group;
+            if (groupV2.getStoredSelfMember() == null) {
+                final var decryptedGroup = groupV2.getGroup();
+                if (decryptedGroup != null) {
+                    groupV2.setSummary(decryptedGroup.getTitle(), groupV2.isMember(selfRecipientId));
+                }
             }
-            return new ArrayList<>(groups);
+            return new GroupSummary(groupV2.getGroupId(),
+                    groupV2.getStoredTitle(),
+                    Boolean.TRUE.equals(groupV2.getStoredSelfMember()),
+                    groupV2.isBlocked(),
+                    groupV2.getStoredRevision());
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the ids of all stored groups, without loading any decrypted groups.
+     */
+    public List<GroupId> getGroupIds() {
+        synchronized (groups) {
+            return new ArrayList<>(groups.keySet());
+        }
+    }
+
+    /**
+     * Loads the decrypted V2 groups from the group cache in the background, so later accesses don't need to
+     * read and parse the group files.
+     */
+    public void warmUpGroupCache(final Executor executor) {
+        final List<GroupInfoV2> groupsV2;
+        synchronized (groups) {
+            groupsV2 = groups.values()
+                    .stream()
+                    .filter(g -> g instanceof GroupInfoV2)
+                    .map(g -> (GroupInfoV2) g)
+                    .collect(Collectors.toList());
+        }
+        if (groupsV2.isEmpty()) {
+            return;
+        }
+        final var chunkSize = (groupsV2.size() + WARM_UP_PARALLELISM - 1) / WARM_UP_PARALLELISM;
+        for (var i = 0; i < groupsV2.size(); i += chunkSize) {
+            final var chunk = groupsV2.subList(i, Math.min(i + chunkSize, groupsV2.size()));
+            executor.execute(() -> chunk.forEach(GroupInfoV2::getGroup));
         }
     }
 
@@ -188,6 +314,9 @@ public class GroupStore {
                         groupV1.addMembers(List.of(recipientId));
                         modified = true;
                     }
+                } else if (group instanceof GroupInfoV2) {
+                    // The cached members may contain the merged recipient id
+                    ((GroupInfoV2) group).invalidateMemberSets();
                 }
             }
             if (modified) {
@@ -205,38 +334,62 @@ public class GroupStore {
                 group = getGroupV1ByV2IdLocked((GroupIdV2) groupId);
             }
         }
-        loadDecryptedGroupLocked(group);
         return group;
     }
 
     private GroupInfo getGroupByV1IdLocked(final GroupIdV1 groupId) {
+        // The V2 id is derived from the V1 id with a cheap pure function, so it isn't indexed
         return groups.get(GroupUtils.getGroupIdV2(groupId));
     }
 
     private GroupInfoV1 getGroupV1ByV2IdLocked(GroupIdV2 groupIdV2) {
-        for (var g : groups.values()) {
-            if (g instanceof GroupInfoV1) {
-                final var gv1 = (GroupInfoV1) g;
-                if (groupIdV2.equals(gv1.getExpectedV2Id())) {
-                    return gv1;
-                }
+        return groupsV1ByExpectedV2Id.get(groupIdV2);
+    }
+
+    private void indexGroupV1Locked(final GroupInfoV1 group) {
+        groupsV1ByExpectedV2Id.put(group.getExpectedV2Id(), group);
+    }
+
+    private void unindexGroupV1Locked(final GroupInfoV1 group) {
+        groupsV1ByExpectedV2Id.remove(group.getExpectedV2Id(), group);
+    }
+
+    private DecryptedGroup loadDecryptedGroup(final GroupIdV2 groupId) {
+        synchronized (recentGroups) {
+            final var group = recentGroups.get(groupId);
+            if (group != null) {
+                return group;
             }
         }
-        return null;
+        var groupFile = getGroupV2File(groupId);
+        if (!groupFile.exists()) {
+            groupFile = getGroupV2FileLegacy(groupId);
+        }
+        if (!groupFile.exists()) {
+            return null;
+        }
+        final DecryptedGroup group;
+        try (var stream = new FileInputStream(groupFile)) {
+            group = DecryptedGroup.parseFrom(stream);
+        } catch (IOException ignored) {
+            return null;
+        }
+        cacheRecentGroup(groupId, group);
+        return group;
     }
 
-    private void loadDecryptedGroupLocked(final GroupInfo group) {
-        if (group instanceof GroupInfoV2 && ((GroupInfoV2) group).getGroup() == null) {
-            var groupFile = getGroupV2File(group.getGroupId());
-            if (!groupFile.exists()) {
-                groupFile = getGroupV2FileLegacy(group.getGroupId());
+    private void cacheRecentGroup(final GroupIdV2 groupId, final DecryptedGroup group) {
+        synchronized (recentGroups) {
+            final var previousGroup = recentGroups.put(groupId, group);
+            if (previousGroup != null) {
+                recentGroupsSize -= previousGroup.getSerializedSize();
             }
-            if (!groupFile.exists()) {
-                return;
-            }
-            try (var stream = new FileInputStream(groupFile)) {
-                ((GroupInfoV2) group).setGroup(DecryptedGroup.parseFrom(stream), recipientResolver);
-            } catch (IOException ignored) {
+            recentGroupsSize += group.getSerializedSize();
+            // Iterates from the least recently used group, the new group is always kept
+            final var iterator = recentGroups.values().iterator();
+            while (recentGroupsSize > RECENT_GROUPS_CACHE_BYTES && recentGroups.size() > 1) {
+                recentGroupsSize -= iterator.next().getSerializedSize();
+                iterator.remove();
             }
         }
     }
@@ -269,7 +422,10 @@ public class GroupStore {
             return new Storage.GroupV2(g2.getGroupId().toBase64(),
                     Base64.getEncoder().encodeToString(g2.getMasterKey().serialize()),
                     g2.isBlocked(),
-                    g2.isPermissionDenied());
+                    g2.isPermissionDenied(),
+                    g2.getStoredRevision() == -1 ? null : g2.getStoredRevision(),
+                    g2.getStoredTitle(),
+                    g2.getStoredSelfMember());
         }).collect(Collectors.toList()));
     }
 
@@ -409,18 +565,30 @@ public class GroupStore {
             public String masterKey;
             public boolean blocked;
             public boolean permissionDenied;
+            public Integer revision;
+            public String title;
+            public Boolean member;
 
             // For deserialization
             private GroupV2() {
             }
 
             public GroupV2(
-                    final String groupId, final String masterKey, final boolean blocked, final boolean permissionDenied
+                    final String groupId,
+                    final String masterKey,
+                    final boolean blocked,
+                    final boolean permissionDenied,
+                    final Integer revision,
+                    final String title,
+                    final Boolean member
             ) {
                 this.groupId = groupId;
                 this.masterKey = masterKey;
                 this.blocked = blocked;
                 this.permissionDenied = permissionDenied;
+                this.revision = revision;
+                this.title = title;
+                this.member = member;
             }
         }
 
@@ -0,0 +1,52 @@
+package org.asamk.signal.manager.storage.groups;
+
+import org.asamk.signal.manager.groups.GroupId;
+
+/**
+ * The metadata of a group that is kept with the group store, so it's available without loading the decrypted group.
+ */
+public class GroupSummary {
+
+    private final GroupId groupId;
+    private final String title;
+    private final boolean isMember;
+    private final boolean isBlocked;
+    private final int revision;
+
+    public GroupSummary(
+            final GroupId groupId,
+            final String title,
+            final boolean isMember,
+            final boolean isBlocked,
+            final int revision
+    ) {
+        this.groupId = groupId;
+        this.title = title;
+        this.isMember = isMember;
+        this.isBlocked = isBlocked;
+        this.revision = revision;
+    }
+
+    public GroupId getGroupId() {
+        return groupId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isMember() {
+        return isMember;
+    }
+
+    public boolean isBlocked() {
+        return isBlocked;
+    }
+
+    /**
+     * @return the revision of a V2 group or -1 for V1 groups and V2 groups that are not known yet
+     */
+    public int getRevision() {
+        return revision;
+    }
+}
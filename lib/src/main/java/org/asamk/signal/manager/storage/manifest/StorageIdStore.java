@@ -0,0 +1,119 @@
+package org.asamk.signal.manager.storage.manifest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.manager.storage.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.storage.StorageId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the ids of the remote storage records that have already been applied locally,
+ * so only new records need to be read when the storage manifest changes.
+ */
+public class StorageIdStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(StorageIdStore.class);
+
+    private final Set<StorageId> storageIds;
+
+    private final ObjectMapper objectMapper;
+    private final File file;
+
+    public static StorageIdStore load(final File file) throws IOException {
+        final var objectMapper = Utils.createStorageObjectMapper();
+        try (var inputStream = new FileInputStream(file)) {
+            final var storage = objectMapper.readValue(inputStream, Storage.class);
+            final var base64 = Base64.getDecoder();
+            final var storageIds = storage.storageIds.stream()
+                    .map(id -> StorageId.forType(base64.decode(id.raw), id.type))
+                    .collect(Collectors.toSet());
+
+            return new StorageIdStore(storageIds, objectMapper, file);
+        } catch (FileNotFoundException e) {
+            logger.debug("Creating new storage id store.");
+            return new StorageIdStore(new HashSet<>(), objectMapper, file);
+        }
+    }
+
+    private StorageIdStore(final Set<StorageId> storageIds, final ObjectMapper objectMapper, final File file) {
+        this.storageIds = storageIds;
+        this.objectMapper = objectMapper;
+        this.file = file;
+    }
+
+    public Set<StorageId> getStorageIds() {
+        synchronized (storageIds) {
+            return Set.copyOf(storageIds);
+        }
+    }
+
+    public void setStorageIds(Collection<StorageId> storageIds) {
+        synchronized (this.storageIds) {
+            this.storageIds.clear();
+            this.storageIds.addAll(storageIds);
+            saveLocked();
+        }
+    }
+
+    private void saveLocked() {
+        final var base64 = Base64.getEncoder();
+        var storage = new Storage(storageIds.stream()
+                .map(id -> new Storage.StorageId(id.getType(), base64.encodeToString(id.getRaw())))
+                .collect(Collectors.toList()));
+
+        // Write to memory first to prevent corrupting the file in case of serialization errors
+        try (var inMemoryOutput = new ByteArrayOutputStream()) {
+            objectMapper.writeValue(inMemoryOutput, storage);
+
+            var input = new ByteArrayInputStream(inMemoryOutput.toByteArray());
+            try (var outputStream = new FileOutputStream(file)) {
+                input.transferTo(outputStream);
+            }
+        } catch (Exception e) {
+            logger.error("Error saving storage id store file: {}", e.getMessage());
+        }
+    }
+
+    private static class Storage {
+
+        public List<StorageId> storageIds;
+
+        // For deserialization
+        private Storage() {
+        }
+
+        public Storage(final List<StorageId> storageIds) {
+            this.storageIds = storageIds;
+        }
+
+        private static class StorageId {
+
+            public int type;
+            public String raw;
+
+            // For deserialization
+            private StorageId() {
+            }
+
+            public StorageId(final int type, final String raw) {
+                this.type = type;
+                this.raw = raw;
+            }
+        }
+    }
+}
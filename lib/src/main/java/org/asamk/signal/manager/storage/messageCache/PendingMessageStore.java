@@ -0,0 +1,95 @@
+package org.asamk.signal.manager.storage.messageCache;
+
+import org.asamk.signal.manager.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Stores received messages, that were already decrypted and handled, until a client acknowledges them.
+ * <p>
+ * The encrypted envelopes in the message cache can't be decrypted a second time, so messages that are delivered to
+ * clients later, keep their decrypted form here, until they are no longer needed.
+ */
+public class PendingMessageStore {
+
+    private final static Logger logger = LoggerFactory.getLogger(PendingMessageStore.class);
+
+    private final File pendingMessagesPath;
+
+    private long nextId = -1;
+
+    public PendingMessageStore(final File pendingMessagesPath) {
+        this.pendingMessagesPath = pendingMessagesPath;
+    }
+
+    /**
+     * @return the ids of all stored messages, in the order they were stored
+     */
+    public synchronized List<Long> getMessageIds() {
+        if (!pendingMessagesPath.exists()) {
+            return List.of();
+        }
+
+        return Arrays.stream(Objects.requireNonNull(pendingMessagesPath.listFiles()))
+                .filter(File::isFile)
+                .map(file -> parseId(file.getName()))
+                .filter(Objects::nonNull)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the id of the stored message
+     */
+    public synchronized long storeMessage(final byte[] message) throws IOException {
+        IOUtils.createPrivateDirectories(pendingMessagesPath);
+        if (nextId == -1) {
+            final var ids = getMessageIds();
+            nextId = ids.isEmpty() ? 1 : ids.get(ids.size() - 1) + 1;
+        }
+
+        final var id = nextId++;
+        final var file = getMessageFile(id);
+        IOUtils.createPrivateFile(file);
+        try (var outputStream = new FileOutputStream(file)) {
+            outputStream.write(message);
+        } catch (IOException e) {
+            deleteMessage(id);
+            throw e;
+        }
+        return id;
+    }
+
+    public byte[] loadMessage(final long id) throws IOException {
+        return Files.readAllBytes(getMessageFile(id).toPath());
+    }
+
+    public void deleteMessage(final long id) {
+        try {
+            Files.deleteIfExists(getMessageFile(id).toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete pending message file {}, ignoring: {}", id, e.getMessage());
+        }
+    }
+
+    private File getMessageFile(final long id) {
+        return new File(pendingMessagesPath, String.valueOf(id));
+    }
+
+    private static Long parseId(final String fileName) {
+        try {
+            return Long.parseLong(fileName);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
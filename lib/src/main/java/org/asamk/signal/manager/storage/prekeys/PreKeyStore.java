@@ -11,12 +11,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PreKeyStore implements org.whispersystems.libsignal.state.PreKeyStore {
 
     private final static Logger logger = LoggerFactory.getLogger(PreKeyStore.class);
 
     private final File preKeysPath;
+    private final AtomicLong removedPreKeyCount = new AtomicLong();
 
     public PreKeyStore(final File preKeysPath) {
         this.preKeysPath = preKeysPath;
@@ -73,11 +75,19 @@ public class PreKeyStore implements org.whispersystems.libsignal.state.PreKeySto
         }
         try {
             Files.delete(file.toPath());
+            removedPreKeyCount.incrementAndGet();
         } catch (IOException e) {
             logger.error("Failed to delete pre key file {}: {}", file, e.getMessage());
         }
     }
 
+    /**
+     * Number of pre keys that have been removed, i.e. consumed by incoming sessions, since this store was loaded.
+     */
+    public long getRemovedPreKeyCount() {
+        return removedPreKeyCount.get();
+    }
+
     public void removeAllPreKeys() {
         final var files = preKeysPath.listFiles();
         if (files == null) {
@@ -18,4 +18,9 @@ public interface ProfileStore {
     void storeProfileKey(RecipientId recipientId, ProfileKey profileKey);
 
     void storeProfileKeyCredential(RecipientId recipientId, ProfileKeyCredential profileKeyCredential);
+
+    /**
+     * Updates only the avatar url path of the stored profile, so concurrent profile updates aren't overwritten.
+     */
+    void storeProfileAvatarUrlPath(RecipientId recipientId, String avatarUrlPath);
 }
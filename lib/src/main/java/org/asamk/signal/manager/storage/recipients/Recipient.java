@@ -3,6 +3,8 @@ package org.asamk.signal.manager.storage.recipients;
 import org.signal.zkgroup.profiles.ProfileKey;
 import org.signal.zkgroup.profiles.ProfileKeyCredential;
 
+import java.util.function.Supplier;
+
 public class Recipient {
 
     private final RecipientId recipientId;
@@ -11,11 +13,18 @@ public class Recipient {
 
     private final Contact contact;
 
-    private final ProfileKey profileKey;
+    private ProfileKey profileKey;
+
+    private ProfileKeyCredential profileKeyCredential;
+
+    private Profile profile;
 
-    private final ProfileKeyCredential profileKeyCredential;
+    // Loaders for values that are only deserialized on first access
+    private Supplier<ProfileKey> profileKeyLoader;
 
-    private final Profile profile;
+    private Supplier<ProfileKeyCredential> profileKeyCredentialLoader;
+
+    private Supplier<Profile> profileLoader;
 
     public Recipient(
             final RecipientId recipientId,
@@ -33,6 +42,41 @@ public class Recipient {
         this.profile = profile;
     }
 
+    private Recipient(
+            final RecipientId recipientId,
+            final RecipientAddress address,
+            final Contact contact,
+            final Supplier<ProfileKey> profileKeyLoader,
+            final Supplier<ProfileKeyCredential> profileKeyCredentialLoader,
+            final Supplier<Profile> profileLoader
+    ) {
+        this.recipientId = recipientId;
+        this.address = address;
+        this.contact = contact;
+        this.profileKeyLoader = profileKeyLoader;
+        this.profileKeyCredentialLoader = profileKeyCredentialLoader;
+        this.profileLoader = profileLoader;
+    }
+
+    /**
+     * Creates a recipient whose profile key, credential and profile are only loaded when they are first accessed.
+     */
+    static Recipient createLazy(
+            final RecipientId recipientId,
+            final RecipientAddress address,
+            final Contact contact,
+            final Supplier<ProfileKey> profileKeyLoader,
+            final Supplier<ProfileKeyCredential> profileKeyCredentialLoader,
+            final Supplier<Profile> profileLoader
+    ) {
+        return new Recipient(recipientId,
+                address,
+                contact,
+                profileKeyLoader,
+                profileKeyCredentialLoader,
+                profileLoader);
+    }
+
     private Recipient(final Builder builder) {
         recipientId = builder.recipientId;
         address = builder.address;
@@ -69,15 +113,27 @@ public class Recipient {
         return contact;
     }
 
-    public ProfileKey getProfileKey() {
+    public synchronized ProfileKey getProfileKey() {
+        if (profileKeyLoader != null) {
+            profileKey = profileKeyLoader.get();
+            profileKeyLoader = null;
+        }
         return profileKey;
     }
 
-    public ProfileKeyCredential getProfileKeyCredential() {
+    public synchronized ProfileKeyCredential getProfileKeyCredential() {
+        if (profileKeyCredentialLoader != null) {
+            profileKeyCredential = profileKeyCredentialLoader.get();
+            profileKeyCredentialLoader = null;
+        }
         return profileKeyCredential;
     }
 
-    public Profile getProfile() {
+    public synchronized Profile getProfile() {
+        if (profileLoader != null) {
+            profile = profileLoader.get();
+            profileLoader = null;
+        }
         return profile;
     }
 
@@ -31,6 +31,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -44,14 +46,21 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
 
     private final Map<RecipientId, Recipient> recipients;
     private final Map<RecipientId, RecipientId> recipientsMerged = new HashMap<>();
+    // Records as they were loaded from the file, written back as is while the recipient is unchanged
+    private final Map<RecipientId, Pair<Recipient, Storage.Recipient>> storedRecipients;
+    private final List<RecipientChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 
     private long lastId;
+    private Transaction activeTransaction;
+    private boolean isModifiedInTransaction;
 
     public static RecipientStore load(File file, RecipientMergeHandler recipientMergeHandler) throws IOException {
         final var objectMapper = Utils.createStorageObjectMapper();
         try (var inputStream = new FileInputStream(file)) {
             final var storage = objectMapper.readValue(inputStream, Storage.class);
-            final var recipients = storage.recipients.stream().map(r -> {
+            final var recipients = new HashMap<RecipientId, Recipient>();
+            final var storedRecipients = new HashMap<RecipientId, Pair<Recipient, Storage.Recipient>>();
+            for (var r : storage.recipients) {
                 final var recipientId = new RecipientId(r.id);
                 final var address = new RecipientAddress(Optional.ofNullable(r.uuid).map(UuidUtil::parseOrThrow),
                         Optional.ofNullable(r.number));
@@ -65,46 +74,66 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
                             r.contact.archived);
                 }
 
-                ProfileKey profileKey = null;
-                if (r.profileKey != null) {
-                    try {
-                        profileKey = new ProfileKey(Base64.getDecoder().decode(r.profileKey));
-                    } catch (InvalidInputException ignored) {
-                    }
-                }
+                // Profile keys, credentials and profiles are only deserialized when they're needed
+                final var recipient = Recipient.createLazy(recipientId,
+                        address,
+                        contact,
+                        () -> parseProfileKey(r.profileKey),
+                        () -> parseProfileKeyCredential(r.profileKeyCredential),
+                        () -> parseProfile(r.profile));
+                recipients.put(recipientId, recipient);
+                storedRecipients.put(recipientId, new Pair<>(recipient, r));
+            }
 
-                ProfileKeyCredential profileKeyCredential = null;
-                if (r.profileKeyCredential != null) {
-                    try {
-                        profileKeyCredential = new ProfileKeyCredential(Base64.getDecoder()
-                                .decode(r.profileKeyCredential));
-                    } catch (Throwable ignored) {
-                    }
-                }
+            return new RecipientStore(objectMapper,
+                    file,
+                    recipientMergeHandler,
+                    recipients,
+                    storedRecipients,
+                    storage.lastId);
+        } catch (FileNotFoundException e) {
+            logger.debug("Creating new recipient store.");
+            return new RecipientStore(objectMapper, file, recipientMergeHandler, new HashMap<>(), new HashMap<>(), 0);
+        }
+    }
 
-                Profile profile = null;
-                if (r.profile != null) {
-                    profile = new Profile(r.profile.lastUpdateTimestamp,
-                            r.profile.givenName,
-                            r.profile.familyName,
-                            r.profile.about,
-                            r.profile.aboutEmoji,
-                            r.profile.avatarUrlPath,
-                            Profile.UnidentifiedAccessMode.valueOfOrUnknown(r.profile.unidentifiedAccessMode),
-                            r.profile.capabilities.stream()
-                                    .map(Profile.Capability::valueOfOrNull)
-                                    .filter(Objects::nonNull)
-                                    .collect(Collectors.toSet()));
-                }
+    private static ProfileKey parseProfileKey(final String profileKey) {
+        if (profileKey == null) {
+            return null;
+        }
+        try {
+            return new ProfileKey(Base64.getDecoder().decode(profileKey));
+        } catch (InvalidInputException ignored) {
+            return null;
+        }
+    }
 
-                return new Recipient(recipientId, address, contact, profileKey, profileKeyCredential, profile);
-            }).collect(Collectors.toMap(Recipient::getRecipientId, r -> r));
+    private static ProfileKeyCredential parseProfileKeyCredential(final String profileKeyCredential) {
+        if (profileKeyCredential == null) {
+            return null;
+        }
+        try {
+            return new ProfileKeyCredential(Base64.getDecoder().decode(profileKeyCredential));
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
 
-            return new RecipientStore(objectMapper, file, recipientMergeHandler, recipients, storage.lastId);
-        } catch (FileNotFoundException e) {
-            logger.debug("Creating new recipient store.");
-            return new RecipientStore(objectMapper, file, recipientMergeHandler, new HashMap<>(), 0);
+    private static Profile parseProfile(final Storage.Recipient.Profile profile) {
+        if (profile == null) {
+            return null;
         }
+        return new Profile(profile.lastUpdateTimestamp,
+                profile.givenName,
+                profile.familyName,
+                profile.about,
+                profile.aboutEmoji,
+                profile.avatarUrlPath,
+                Profile.UnidentifiedAccessMode.valueOfOrUnknown(profile.unidentifiedAccessMode),
+                profile.capabilities.stream()
+                        .map(Profile.Capability::valueOfOrNull)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet()));
     }
 
     private RecipientStore(
@@ -112,15 +141,24 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
             final File file,
             final RecipientMergeHandler recipientMergeHandler,
             final Map<RecipientId, Recipient> recipients,
+            final Map<RecipientId, Pair<Recipient, Storage.Recipient>> storedRecipients,
             final long lastId
     ) {
         this.objectMapper = objectMapper;
         this.file = file;
         this.recipientMergeHandler = recipientMergeHandler;
         this.recipients = recipients;
+        this.storedRecipients = storedRecipients;
         this.lastId = lastId;
     }
 
+    /**
+     * The listener is called for every changed recipient, while the store is locked.
+     */
+    public void addChangeListener(RecipientChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
     public RecipientAddress resolveRecipientAddress(RecipientId recipientId) {
         synchronized (recipients) {
             return getRecipient(recipientId).getAddress();
@@ -182,28 +220,48 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
     }
 
     public List<RecipientId> resolveRecipientsTrusted(List<RecipientAddress> addresses) {
-        final List<RecipientId> recipientIds;
-        final List<Pair<RecipientId, RecipientId>> toBeMerged = new ArrayList<>();
+        final var recipientIds = new ArrayList<RecipientId>(addresses.size());
+        batch(tx -> {
+            for (var address : addresses) {
+                recipientIds.add(tx.resolveRecipientTrusted(address));
+            }
+        });
+        return recipientIds;
+    }
+
+    /**
+     * Applies all changes made with the transaction under a single lock.
+     * The store is saved once after the transaction and resulting recipient merges are handled afterwards.
+     */
+    public void batch(Consumer<Transaction> transaction) {
+        final Transaction tx;
         synchronized (recipients) {
-            recipientIds = addresses.stream().map(address -> {
-                final var pair = resolveRecipientLocked(address, true);
-                if (pair.second().isPresent()) {
-                    toBeMerged.add(new Pair<>(pair.first(), pair.second().get()));
+            if (activeTransaction != null) {
+                // Nested batch, changes are saved by the outer transaction
+                transaction.accept(activeTransaction);
+                return;
+            }
+            tx = new Transaction();
+            activeTransaction = tx;
+            try {
+                transaction.accept(tx);
+            } finally {
+                activeTransaction = null;
+                if (isModifiedInTransaction) {
+                    isModifiedInTransaction = false;
+                    saveLocked();
                 }
-                return pair.first();
-            }).collect(Collectors.toList());
+            }
         }
-        for (var pair : toBeMerged) {
+        for (var pair : tx.toBeMerged) {
             recipientMergeHandler.mergeRecipients(pair.first(), pair.second());
         }
-        return recipientIds;
     }
 
     @Override
     public void storeContact(final RecipientId recipientId, final Contact contact) {
         synchronized (recipients) {
-            final var recipient = recipients.get(recipientId);
-            storeRecipientLocked(recipientId, Recipient.newBuilder(recipient).withContact(contact).build());
+            storeContactLocked(recipientId, contact);
         }
     }
 
@@ -243,27 +301,14 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
     @Override
     public void storeProfile(final RecipientId recipientId, final Profile profile) {
         synchronized (recipients) {
-            final var recipient = recipients.get(recipientId);
-            storeRecipientLocked(recipientId, Recipient.newBuilder(recipient).withProfile(profile).build());
+            storeProfileLocked(recipientId, profile);
         }
     }
 
     @Override
     public void storeProfileKey(final RecipientId recipientId, final ProfileKey profileKey) {
         synchronized (recipients) {
-            final var recipient = recipients.get(recipientId);
-            if (profileKey != null && profileKey.equals(recipient.getProfileKey())) {
-                return;
-            }
-
-            final var newRecipient = Recipient.newBuilder(recipient)
-                    .withProfileKey(profileKey)
-                    .withProfileKeyCredential(null)
-                    .withProfile(recipient.getProfile() == null
-                            ? null
-                            : Profile.newBuilder(recipient.getProfile()).withLastUpdateTimestamp(0).build())
-                    .build();
-            storeRecipientLocked(recipientId, newRecipient);
+            storeProfileKeyLocked(recipientId, profileKey);
         }
     }
 
@@ -278,6 +323,15 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
         }
     }
 
+    @Override
+    public void storeProfileAvatarUrlPath(final RecipientId recipientId, final String avatarUrlPath) {
+        synchronized (recipients) {
+            final var profile = recipients.get(recipientId).getProfile();
+            final var builder = profile == null ? Profile.newBuilder() : Profile.newBuilder(profile);
+            storeProfileLocked(recipientId, builder.withAvatarUrlPath(avatarUrlPath).build());
+        }
+    }
+
     public boolean isEmpty() {
         synchronized (recipients) {
             return recipients.isEmpty();
@@ -364,6 +418,32 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
         return new Pair<>(byUuid.get().getRecipientId(), byNumber.map(Recipient::getRecipientId));
     }
 
+    private void storeContactLocked(final RecipientId recipientId, final Contact contact) {
+        final var recipient = recipients.get(recipientId);
+        storeRecipientLocked(recipientId, Recipient.newBuilder(recipient).withContact(contact).build());
+    }
+
+    private void storeProfileLocked(final RecipientId recipientId, final Profile profile) {
+        final var recipient = recipients.get(recipientId);
+        storeRecipientLocked(recipientId, Recipient.newBuilder(recipient).withProfile(profile).build());
+    }
+
+    private void storeProfileKeyLocked(final RecipientId recipientId, final ProfileKey profileKey) {
+        final var recipient = recipients.get(recipientId);
+        if (profileKey != null && profileKey.equals(recipient.getProfileKey())) {
+            return;
+        }
+
+        final var newRecipient = Recipient.newBuilder(recipient)
+                .withProfileKey(profileKey)
+                .withProfileKeyCredential(null)
+                .withProfile(recipient.getProfile() == null
+                        ? null
+                        : Profile.newBuilder(recipient.getProfile()).withLastUpdateTimestamp(0).build())
+                .build();
+        storeRecipientLocked(recipientId, newRecipient);
+    }
+
     private RecipientId addNewRecipientLocked(final RecipientAddress address) {
         final var nextRecipientId = nextIdLocked();
         storeRecipientLocked(nextRecipientId, new Recipient(nextRecipientId, address, null, null, null, null));
@@ -380,8 +460,11 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
     private void storeRecipientLocked(
             final RecipientId recipientId, final Recipient recipient
     ) {
-        recipients.put(recipientId, recipient);
+        final var oldRecipient = recipients.put(recipientId, recipient);
+        storedRecipients.remove(recipientId);
         saveLocked();
+        notifyChangedLocked(recipientId,
+                oldRecipient == null || !oldRecipient.getAddress().equals(recipient.getAddress()));
     }
 
     private void mergeRecipientsLocked(RecipientId recipientId, RecipientId toBeMergedRecipientId) {
@@ -399,7 +482,17 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
                                 : toBeMergedRecipient.getProfileKeyCredential(),
                         recipient.getProfile() != null ? recipient.getProfile() : toBeMergedRecipient.getProfile()));
         recipients.remove(toBeMergedRecipientId);
+        storedRecipients.remove(recipientId);
+        storedRecipients.remove(toBeMergedRecipientId);
         saveLocked();
+        notifyChangedLocked(recipientId, true);
+        notifyChangedLocked(toBeMergedRecipientId, true);
+    }
+
+    private void notifyChangedLocked(final RecipientId recipientId, final boolean addressChanged) {
+        for (var listener : changeListeners) {
+            listener.recipientChanged(recipientId, addressChanged);
+        }
     }
 
     private Optional<Recipient> findByNumberLocked(final String number) {
@@ -429,9 +522,18 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
     }
 
     private void saveLocked() {
+        if (activeTransaction != null) {
+            isModifiedInTransaction = true;
+            return;
+        }
+
         final var base64 = Base64.getEncoder();
         var storage = new Storage(recipients.entrySet().stream().map(pair -> {
             final var recipient = pair.getValue();
+            final var storedRecipient = storedRecipients.get(pair.getKey());
+            if (storedRecipient != null && storedRecipient.first() == recipient) {
+                return storedRecipient.second();
+            }
             final var contact = recipient.getContact() == null
                     ? null
                     : new Storage.Recipient.Contact(recipient.getContact().getName(),
@@ -591,8 +693,69 @@ public class RecipientStore implements RecipientResolver, ContactsStore, Profile
         }
     }
 
+    /**
+     * Changes to the store that are saved together, may only be used inside of {@link #batch(Consumer)}.
+     */
+    public final class Transaction {
+
+        private final List<Pair<RecipientId, RecipientId>> toBeMerged = new ArrayList<>();
+
+        private Transaction() {
+        }
+
+        public RecipientId resolveRecipient(RecipientAddress address) {
+            return resolveRecipient(address, false);
+        }
+
+        public RecipientId resolveRecipient(SignalServiceAddress address) {
+            return resolveRecipient(new RecipientAddress(address), false);
+        }
+
+        public RecipientId resolveRecipientTrusted(RecipientAddress address) {
+            return resolveRecipient(address, true);
+        }
+
+        public RecipientId resolveRecipientTrusted(SignalServiceAddress address) {
+            return resolveRecipient(new RecipientAddress(address), true);
+        }
+
+        public Contact getContact(RecipientId recipientId) {
+            final var recipient = recipients.get(recipientId);
+            return recipient == null ? null : recipient.getContact();
+        }
+
+        public void storeContact(RecipientId recipientId, Contact contact) {
+            storeContactLocked(recipientId, contact);
+        }
+
+        public void storeProfile(RecipientId recipientId, Profile profile) {
+            storeProfileLocked(recipientId, profile);
+        }
+
+        public void storeProfileKey(RecipientId recipientId, ProfileKey profileKey) {
+            storeProfileKeyLocked(recipientId, profileKey);
+        }
+
+        private RecipientId resolveRecipient(RecipientAddress address, boolean isHighTrust) {
+            final var pair = resolveRecipientLocked(address, isHighTrust);
+            if (pair.second().isPresent()) {
+                recipientsMerged.put(pair.second().get(), pair.first());
+                toBeMerged.add(new Pair<>(pair.first(), pair.second().get()));
+            }
+            return pair.first();
+        }
+    }
+
     public interface RecipientMergeHandler {
 
         void mergeRecipients(RecipientId recipientId, RecipientId toBeMergedRecipientId);
     }
+
+    public interface RecipientChangeListener {
+
+        /**
+         * @param addressChanged true, if the recipient is new, was merged or its number or uuid changed
+         */
+        void recipientChanged(RecipientId recipientId, boolean addressChanged);
+    }
 }
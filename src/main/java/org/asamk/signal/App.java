@@ -1,5 +1,7 @@
 package org.asamk.signal;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -9,6 +11,7 @@ import org.asamk.Signal;
 import org.asamk.signal.commands.Command;
 import org.asamk.signal.commands.Commands;
 import org.asamk.signal.commands.ExtendedDbusCommand;
+import org.asamk.signal.commands.JsonRpcLocalCommand;
 import org.asamk.signal.commands.LocalCommand;
 import org.asamk.signal.commands.MultiLocalCommand;
 import org.asamk.signal.commands.ProvisioningCommand;
@@ -17,8 +20,13 @@ import org.asamk.signal.commands.SignalCreator;
 import org.asamk.signal.commands.exceptions.CommandException;
 import org.asamk.signal.commands.exceptions.IOErrorException;
 import org.asamk.signal.commands.exceptions.UnexpectedErrorException;
+import org.asamk.signal.commands.exceptions.UntrustedKeyErrorException;
 import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.dbus.DbusManagerImpl;
+import org.asamk.signal.jsonrpc.DaemonClient;
+import org.asamk.signal.jsonrpc.DaemonInfo;
+import org.asamk.signal.jsonrpc.JsonRpcException;
+import org.asamk.signal.jsonrpc.SignalJsonRpcDispatcherHandler;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.NotRegisteredException;
 import org.asamk.signal.manager.ProvisioningManager;
@@ -27,6 +35,7 @@ import org.asamk.signal.manager.config.ServiceConfig;
 import org.asamk.signal.manager.config.ServiceEnvironment;
 import org.asamk.signal.manager.storage.identities.TrustNewIdentity;
 import org.asamk.signal.util.IOUtils;
+import org.asamk.signal.util.Util;
 import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
@@ -36,6 +45,7 @@ import org.whispersystems.signalservice.api.util.PhoneNumberFormatter;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -45,6 +55,20 @@ public class App {
 
     private final static Logger logger = LoggerFactory.getLogger(App.class);
 
+    // Arguments of the main parser, which aren't forwarded to a daemon
+    private final static List<String> GLOBAL_ARGUMENTS = List.of("verbose",
+            "config",
+            "username",
+            "dbus",
+            "dbus-system",
+            "output",
+            "service-environment",
+            "trust-new-identities",
+            "no-daemon",
+            "command");
+    // Arguments with local file paths, which the daemon has to get as absolute paths
+    private final static List<String> PATH_ARGUMENTS = List.of("attachment", "avatar", "path");
+
     private final Namespace ns;
 
     static ArgumentParser buildArgumentParser() {
@@ -82,6 +106,10 @@ public class App {
                 .type(Arguments.enumStringType(TrustNewIdentityCli.class))
                 .setDefault(TrustNewIdentityCli.ON_FIRST_USE);
 
+        parser.addArgument("--no-daemon")
+                .help("Always run commands locally, even if a daemon is running.")
+                .action(Arguments.storeTrue());
+
         var subparsers = parser.addSubparsers().title("subcommands").dest("command");
 
         Commands.getCommandSubparserAttachers().forEach((key, value) -> {
@@ -125,12 +153,14 @@ public class App {
             return;
         }
 
-        final File dataPath;
-        var config = ns.getString("config");
-        if (config != null) {
-            dataPath = new File(config);
-        } else {
-            dataPath = getDefaultDataPath();
+        final var dataPath = IOUtils.getDataPath(ns.getString("config"));
+
+        if ((command instanceof LocalCommand || command instanceof RegistrationCommand)
+                && !Boolean.TRUE.equals(ns.getBoolean("no-daemon"))) {
+            // A running daemon holds the account's file lock, forwarding also avoids loading the account
+            if (handleDaemonCommand(command, commandKey, username, dataPath, outputWriter)) {
+                return;
+            }
         }
 
         if (!ServiceConfig.getCapabilities().isGv2()) {
@@ -361,9 +391,109 @@ public class App {
     }
 
     /**
-     * @return the default data directory to be used by signal-cli.
+     * Forwards the command to a running daemon that uses the same data directory and provides the account.
+     * Commands that can't be forwarded fail, instead of waiting until the daemon releases the account.
+     *
+     * @return false, if no such daemon is running and the command needs to be executed locally
      */
-    private static File getDefaultDataPath() {
-        return new File(IOUtils.getDataHomeDir(), "signal-cli");
+    private boolean handleDaemonCommand(
+            final Command command,
+            final String commandKey,
+            final String username,
+            final File dataPath,
+            final OutputWriter outputWriter
+    ) throws CommandException {
+        final var daemonInfo = DaemonInfo.load(dataPath);
+        if (daemonInfo == null) {
+            return false;
+        }
+
+        try (var client = DaemonClient.connect(daemonInfo)) {
+            if (client == null) {
+                return false;
+            }
+
+            final var accounts = client.getAccounts();
+            final var providesAccount = username == null ? accounts.size() == 1 : accounts.contains(username);
+            // The daemon returns the JSON result, plain text output can't be rendered from it
+            final var canForward = command instanceof JsonRpcLocalCommand
+                    && (outputWriter == null || outputWriter instanceof JsonWriter);
+            if (!providesAccount || !canForward) {
+                final var usesAccount = username == null && command instanceof MultiLocalCommand
+                        ? !accounts.isEmpty()
+                        : providesAccount;
+                if (!usesAccount) {
+                    logger.debug("Daemon doesn't provide the account, executing command locally");
+                    return false;
+                }
+                throw new UserErrorException("The account is in use by the daemon running on "
+                        + daemonInfo.getAddress()
+                        + (command instanceof JsonRpcLocalCommand
+                        ? ", use --output=json to run the command via the daemon"
+                        : ", stop the daemon to run this command")
+                        + " or use --no-daemon to wait until the daemon exits");
+            }
+
+            final var params = getDaemonCommandParams(commandKey);
+            if (username != null) {
+                params.put("account", username);
+            }
+            logger.debug("Forwarding command to daemon on {}", daemonInfo.getAddress());
+            final var result = client.request(commandKey, params);
+
+            if (result == null || result.isNull() || (result.isContainerNode() && result.size() == 0)) {
+                return true;
+            }
+            if (outputWriter != null) {
+                ((JsonWriter) outputWriter).write(result);
+            }
+            return true;
+        } catch (JsonRpcException e) {
+            final var error = e.getError();
+            switch (error.getCode()) {
+                case SignalJsonRpcDispatcherHandler.USER_ERROR:
+                    throw new UserErrorException(error.getMessage());
+                case SignalJsonRpcDispatcherHandler.UNTRUSTED_KEY_ERROR:
+                    throw new UntrustedKeyErrorException(error.getMessage());
+                case SignalJsonRpcDispatcherHandler.IO_ERROR:
+                    throw new IOErrorException(error.getMessage(), new IOException(error.getMessage()));
+                default:
+                    throw new UnexpectedErrorException("Daemon command failed: " + error.getMessage(), e);
+            }
+        } catch (IOException e) {
+            throw new IOErrorException("Daemon connection failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts the command arguments to JSON-RPC params, which are handled by the daemon like local arguments.
+     */
+    private ObjectNode getDaemonCommandParams(final String commandKey) throws CommandException {
+        final var objectMapper = Util.createJsonObjectMapper();
+        final var params = objectMapper.createObjectNode();
+        for (var entry : ns.getAttrs().entrySet()) {
+            if (entry.getValue() != null && !GLOBAL_ARGUMENTS.contains(entry.getKey())) {
+                params.set(entry.getKey(), objectMapper.valueToTree(entry.getValue()));
+            }
+        }
+
+        // The daemon can't read the client's standard input or resolve its relative paths
+        if ("send".equals(commandKey) && !params.has("message") && !params.path("end-session").asBoolean()) {
+            try {
+                params.put("message", IOUtils.readAll(System.in, Charset.defaultCharset()));
+            } catch (IOException e) {
+                throw new UserErrorException("Failed to read message from stdin: " + e.getMessage());
+            }
+        }
+        for (var key : PATH_ARGUMENTS) {
+            final var value = params.get(key);
+            if (value != null && value.isTextual()) {
+                params.put(key, new File(value.asText()).getAbsolutePath());
+            } else if (value != null && value.isArray()) {
+                final var paths = params.putArray(key);
+                value.forEach(path -> paths.add(new File(path.asText()).getAbsolutePath()));
+            }
+        }
+        return params;
     }
 }
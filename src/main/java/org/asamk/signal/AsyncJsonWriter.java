@@ -0,0 +1,228 @@
+package org.asamk.signal;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * Json writer that serializes the objects on its own thread, so producers only have to enqueue them.
+ * <p>
+ * The objects are written in batches, the output is flushed when the queue becomes empty or at least every
+ * {@link #FLUSH_INTERVAL} milliseconds. If the queue is full, the {@link OverflowPolicy} decides whether producers
+ * wait or old objects are dropped. With a write timeout, a consumer that doesn't read for that long is disconnected by
+ * closing the output stream, instead of blocking the producers forever.
+ * <p>
+ * Objects are written as JSON lines or, with a framed {@link WireFormat}, as length-prefixed binary values.
+ */
+public class AsyncJsonWriter implements JsonWriter, Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(AsyncJsonWriter.class);
+
+    public final static int DEFAULT_CAPACITY = 1000;
+    private final static long FLUSH_INTERVAL = 50;
+
+    private final OutputStream outputStream;
+    private final DataOutputStream output;
+    private final Writer writer;
+    private final WireFormat wireFormat;
+    private final ObjectMapper objectMapper;
+    private final ArrayDeque<Object> queue;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Predicate<Object> droppable;
+    private final long writeTimeout;
+    private final Thread thread;
+
+    private boolean closed = false;
+    private boolean failed = false;
+    private long droppedCount = 0;
+
+    /**
+     * @param droppable    objects that may be dropped with the {@link OverflowPolicy#DROP_OLDEST} policy
+     * @param writeTimeout milliseconds a producer waits for a full queue before the output is closed, 0 to wait forever
+     */
+    public AsyncJsonWriter(
+            final OutputStream outputStream,
+            final WireFormat wireFormat,
+            final int capacity,
+            final OverflowPolicy overflowPolicy,
+            final Predicate<Object> droppable,
+            final long writeTimeout
+    ) {
+        this.outputStream = outputStream;
+        this.output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        this.writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        this.wireFormat = wireFormat;
+        this.objectMapper = wireFormat.createObjectMapper();
+        // Flushing is done by the writer thread once per batch
+        this.objectMapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.objectMapper.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        this.queue = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.droppable = droppable;
+        this.writeTimeout = writeTimeout;
+        this.thread = new Thread(this::run, "json-writer");
+        this.thread.start();
+    }
+
+    @Override
+    public void write(final Object object) {
+        synchronized (queue) {
+            if (failed) {
+                throw new IllegalStateException("Output is no longer writable");
+            }
+            if (closed) {
+                logger.debug("Json writer is already closed, dropping output");
+                return;
+            }
+            final var deadline = System.currentTimeMillis() + writeTimeout;
+            while (queue.size() >= capacity) {
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST && dropOldest()) {
+                    break;
+                }
+                final var remaining = deadline - System.currentTimeMillis();
+                if (writeTimeout > 0 && remaining <= 0) {
+                    break;
+                }
+                try {
+                    queue.wait(writeTimeout > 0 ? remaining : 0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.debug("Interrupted while waiting for json writer, dropping output");
+                    return;
+                }
+                if (failed) {
+                    throw new IllegalStateException("Output is no longer writable");
+                }
+            }
+            if (queue.size() < capacity) {
+                queue.add(object);
+                queue.notifyAll();
+                return;
+            }
+            failed = true;
+            queue.clear();
+            queue.notifyAll();
+        }
+
+        logger.warn("Output consumer hasn't read for {}ms, closing the output", writeTimeout);
+        try {
+            // Also stops the writer thread, if it's blocked writing to the consumer
+            outputStream.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close output: {}", e.getMessage());
+        }
+        throw new IllegalStateException("Output consumer is too slow");
+    }
+
+    private boolean dropOldest() {
+        final Iterator<Object> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (droppable.test(iterator.next())) {
+                iterator.remove();
+                if (droppedCount++ % capacity == 0) {
+                    logger.warn("Output consumer is too slow, dropped {} objects", droppedCount);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes all queued objects and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            closed = true;
+            queue.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        final var batch = new ArrayList<>();
+        var lastFlush = System.currentTimeMillis();
+        try {
+            while (true) {
+                final boolean idle;
+                synchronized (queue) {
+                    while (queue.isEmpty() && !closed) {
+                        queue.wait();
+                    }
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    batch.addAll(queue);
+                    queue.clear();
+                    queue.notifyAll();
+                }
+
+                for (var object : batch) {
+                    writeObject(object);
+                }
+                batch.clear();
+
+                synchronized (queue) {
+                    idle = queue.isEmpty();
+                }
+                final var now = System.currentTimeMillis();
+                if (idle || now - lastFlush >= FLUSH_INTERVAL) {
+                    writer.flush();
+                    lastFlush = now;
+                }
+            }
+            // Flushing the writer flushes the underlying output as well
+            writer.flush();
+        } catch (IOException e) {
+            logger.debug("Failed to write json output: {}", e.getMessage());
+            synchronized (queue) {
+                failed = true;
+                queue.clear();
+                queue.notifyAll();
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void writeObject(final Object object) throws IOException {
+        try {
+            if (wireFormat.isFramed()) {
+                // Serialized completely first, the length prefix is needed before the content
+                final var bytes = objectMapper.writeValueAsBytes(object);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+                return;
+            }
+            objectMapper.writeValue(writer, object);
+        } catch (JsonProcessingException e) {
+            // Some issue with json serialization, probably caused by a bug
+            logger.error("Failed to serialize json output", e);
+            return;
+        }
+        writer.write(System.lineSeparator());
+    }
+}
@@ -2,36 +2,40 @@ package org.asamk.signal;
 
 import org.asamk.signal.json.JsonError;
 import org.asamk.signal.json.JsonMessageEnvelope;
+import org.asamk.signal.json.JsonReceivedMessage;
 import org.asamk.signal.manager.Manager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.signalservice.api.messages.SignalServiceContent;
 import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
 
-import java.util.HashMap;
-
 public class JsonReceiveMessageHandler implements Manager.ReceiveMessageHandler {
 
     private final static Logger logger = LoggerFactory.getLogger(JsonReceiveMessageHandler.class);
 
     protected final Manager m;
     private final JsonWriter jsonWriter;
+    private final String account;
 
     public JsonReceiveMessageHandler(Manager m, JsonWriter jsonWriter) {
+        this(m, jsonWriter, null);
+    }
+
+    /**
+     * @param account included in the output, if not null
+     */
+    public JsonReceiveMessageHandler(Manager m, JsonWriter jsonWriter, String account) {
         this.m = m;
         this.jsonWriter = jsonWriter;
+        this.account = account;
     }
 
     @Override
     public void handleMessage(SignalServiceEnvelope envelope, SignalServiceContent content, Throwable exception) {
-        final var object = new HashMap<String, Object>();
-        if (exception != null) {
-            object.put("error", new JsonError(exception));
-        }
-
-        if (envelope != null) {
-            object.put("envelope", new JsonMessageEnvelope(envelope, content, exception, m));
-        }
+        // Written directly by the json writer, without building an intermediate map or tree
+        final var object = new JsonReceivedMessage(account,
+                envelope == null ? null : new JsonMessageEnvelope(envelope, content, exception, m),
+                exception == null ? null : new JsonError(exception));
 
         jsonWriter.write(object);
     }
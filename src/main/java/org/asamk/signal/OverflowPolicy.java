@@ -0,0 +1,25 @@
+package org.asamk.signal;
+
+/**
+ * What an asynchronous writer does, when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until the writer has caught up.
+     */
+    BLOCK {
+        @Override
+        public String toString() {
+            return "block";
+        }
+    },
+    /**
+     * Drop the oldest queued object that may be dropped, e.g. a notification, or wait if there is none.
+     */
+    DROP_OLDEST {
+        @Override
+        public String toString() {
+            return "drop-oldest";
+        }
+    },
+}
@@ -0,0 +1,113 @@
+package org.asamk.signal;
+
+import org.asamk.signal.manager.Manager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the messages of one account and passes them on to all subscribed handlers.
+ * A manager can only receive messages once at a time, this allows multiple consumers for the same account.
+ */
+public class ReceiveMessageBroadcaster implements Manager.ReceiveMessageHandler {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReceiveMessageBroadcaster.class);
+
+    private final Manager m;
+    private final List<Manager.ReceiveMessageHandler> handlers = new CopyOnWriteArrayList<>();
+    private ReceiveMessageQueue queue;
+    private Manager.ReceiveMessageHandler queueHandler;
+
+    public ReceiveMessageBroadcaster(final Manager m) {
+        this.m = m;
+    }
+
+    public Manager getManager() {
+        return m;
+    }
+
+    /**
+     * Returns the queue for clients that fetch messages themselves, messages are only queued after the first call.
+     * When no client has used the queue for a while, it's detached again, the messages it stored are kept.
+     */
+    public synchronized ReceiveMessageQueue getQueue() {
+        if (queue == null) {
+            final var newQueue = new ReceiveMessageQueue(m.getPendingMessageStore());
+            final var jsonHandler = new JsonReceiveMessageHandler(m, newQueue);
+            queue = newQueue;
+            queueHandler = (envelope, content, exception) -> {
+                if (newQueue.isIdle()) {
+                    detachQueue(newQueue);
+                    return;
+                }
+                jsonHandler.handleMessage(envelope, content, exception);
+            };
+            addHandler(queueHandler);
+        }
+        return queue;
+    }
+
+    private synchronized void detachQueue(final ReceiveMessageQueue idleQueue) {
+        if (queue != idleQueue) {
+            return;
+        }
+        logger.debug("Receive queue hasn't been used for a while, no longer queueing messages");
+        removeHandler(queueHandler);
+        queue = null;
+        queueHandler = null;
+    }
+
+    public void addHandler(Manager.ReceiveMessageHandler handler) {
+        handlers.add(handler);
+    }
+
+    public void removeHandler(Manager.ReceiveMessageHandler handler) {
+        handlers.remove(handler);
+    }
+
+    @Override
+    public void handleMessage(
+            final SignalServiceEnvelope envelope, final SignalServiceContent content, final Throwable exception
+    ) {
+        for (var handler : handlers) {
+            try {
+                handler.handleMessage(envelope, content, exception);
+            } catch (RuntimeException | AssertionError e) {
+                // A failing consumer, e.g. a disconnected client, must not stop message receiving for the others
+                logger.warn("Receive message handler failed, removing it: {}", e.getMessage());
+                handlers.remove(handler);
+            }
+        }
+    }
+
+    /**
+     * Receives messages until the current thread is interrupted.
+     */
+    public void receive(boolean ignoreAttachments) {
+        while (!Thread.interrupted()) {
+            try {
+                m.receiveMessages(1, TimeUnit.HOURS, false, ignoreAttachments, this);
+                break;
+            } catch (IOException e) {
+                logger.warn("Receiving messages failed, retrying", e);
+            }
+        }
+    }
+
+    /**
+     * Starts receiving messages in a new thread, until the thread is interrupted.
+     */
+    public Thread start(boolean ignoreAttachments) {
+        final var thread = new Thread(() -> receive(ignoreAttachments));
+
+        thread.start();
+
+        return thread;
+    }
+}
@@ -0,0 +1,193 @@
+package org.asamk.signal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.asamk.signal.manager.storage.messageCache.PendingMessageStore;
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps received messages until a client fetches them in batches and acknowledges them.
+ * <p>
+ * The messages are written to the account's pending message store and only their ids are kept in memory, so the
+ * receive thread never waits for the client and unacknowledged messages are delivered again after a restart.
+ * A fetched batch that isn't acknowledged within {@link #ACK_TIMEOUT} milliseconds is delivered again.
+ */
+public class ReceiveMessageQueue implements JsonWriter {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReceiveMessageQueue.class);
+
+    private final static long ACK_TIMEOUT = 60 * 1000;
+    private final static long IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    private final PendingMessageStore store;
+    private final ObjectMapper objectMapper = Util.createJsonObjectMapper();
+    private final ArrayDeque<Long> pending;
+    private final TreeMap<Long, UnacknowledgedBatch> unacknowledged = new TreeMap<>();
+
+    // Batch ids are unique across queue instances, so a batch of a previous queue can't acknowledge a new one
+    private long nextBatchId = System.currentTimeMillis();
+    private long lastAccessTime = System.currentTimeMillis();
+    private int activeReceives = 0;
+
+    public ReceiveMessageQueue(final PendingMessageStore store) {
+        this.store = store;
+        // Messages that weren't acknowledged before are delivered first
+        this.pending = new ArrayDeque<>(store.getMessageIds());
+    }
+
+    @Override
+    public void write(final Object message) {
+        final long id;
+        try {
+            id = store.storeMessage(objectMapper.writeValueAsBytes(message));
+        } catch (IOException e) {
+            logger.warn("Failed to store message for receive queue, dropping it: {}", e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            pending.add(id);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until maxMessages messages are available or the timeout has passed and returns them as a new batch.
+     *
+     * @return the batch, which needs to be acknowledged, or null if no message was received
+     */
+    public synchronized Batch receive(final int maxMessages, final long timeoutMillis) throws InterruptedException {
+        activeReceives++;
+        try {
+            final var deadline = System.currentTimeMillis() + timeoutMillis;
+            requeueExpiredBatches();
+            while (pending.size() < maxMessages) {
+                final var remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+                requeueExpiredBatches();
+            }
+
+            final var messageIds = new ArrayList<Long>(Math.min(maxMessages, pending.size()));
+            final var messages = new ArrayList<JsonNode>(Math.min(maxMessages, pending.size()));
+            while (messages.size() < maxMessages && !pending.isEmpty()) {
+                final var messageId = pending.poll();
+                final var message = loadMessage(messageId);
+                if (message != null) {
+                    messageIds.add(messageId);
+                    messages.add(message);
+                }
+            }
+            if (messages.isEmpty()) {
+                return null;
+            }
+
+            final var batchId = nextBatchId++;
+            unacknowledged.put(batchId,
+                    new UnacknowledgedBatch(messageIds, System.currentTimeMillis() + ACK_TIMEOUT));
+            return new Batch(batchId, messages);
+        } finally {
+            activeReceives--;
+            lastAccessTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Removes the messages of the batch from the queue and the pending message store.
+     *
+     * @return false, if the batch doesn't exist or was already delivered again
+     */
+    public synchronized boolean acknowledge(final long batchId) {
+        lastAccessTime = System.currentTimeMillis();
+        final var batch = unacknowledged.remove(batchId);
+        if (batch == null) {
+            return false;
+        }
+        for (var messageId : batch.messageIds) {
+            store.deleteMessage(messageId);
+        }
+        return true;
+    }
+
+    /**
+     * @return true, if no client has fetched or acknowledged messages for a while
+     */
+    public synchronized boolean isIdle() {
+        return activeReceives == 0 && System.currentTimeMillis() - lastAccessTime > IDLE_TIMEOUT;
+    }
+
+    private JsonNode loadMessage(final long messageId) {
+        try {
+            return objectMapper.readTree(store.loadMessage(messageId));
+        } catch (IOException e) {
+            logger.warn("Failed to load message {} of receive queue, dropping it: {}", messageId, e.getMessage());
+            store.deleteMessage(messageId);
+            return null;
+        }
+    }
+
+    /**
+     * Puts the messages of batches that weren't acknowledged in time back in front of the queue, keeping their order.
+     */
+    private void requeueExpiredBatches() {
+        final var now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Long, UnacknowledgedBatch>> iterator = unacknowledged.descendingMap()
+                .entrySet()
+                .iterator();
+        while (iterator.hasNext()) {
+            final var entry = iterator.next();
+            final var batch = entry.getValue();
+            if (batch.expiresAt > now) {
+                continue;
+            }
+            logger.debug("Batch {} wasn't acknowledged in time, delivering its messages again", entry.getKey());
+            iterator.remove();
+            final var messageIds = batch.messageIds;
+            for (var i = messageIds.size() - 1; i >= 0; i--) {
+                pending.addFirst(messageIds.get(i));
+            }
+        }
+    }
+
+    public static class Batch {
+
+        private final long id;
+        private final List<JsonNode> messages;
+
+        private Batch(final long id, final List<JsonNode> messages) {
+            this.id = id;
+            this.messages = messages;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public List<JsonNode> getMessages() {
+            return messages;
+        }
+    }
+
+    private static class UnacknowledgedBatch {
+
+        private final List<Long> messageIds;
+        private final long expiresAt;
+
+        private UnacknowledgedBatch(final List<Long> messageIds, final long expiresAt) {
+            this.messageIds = messageIds;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.asamk.signal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.asamk.signal.util.Util;
+
+/**
+ * Encoding of the JSON-RPC messages on the wire, the message model is the same for all formats.
+ */
+public enum WireFormat {
+    /**
+     * JSON text, one message per line.
+     */
+    JSON {
+        @Override
+        public String toString() {
+            return "json";
+        }
+    },
+    /**
+     * Binary Smile encoded messages, each prefixed with its length as four byte big-endian integer.
+     */
+    SMILE {
+        @Override
+        public String toString() {
+            return "smile";
+        }
+    };
+
+    public boolean isFramed() {
+        return this != JSON;
+    }
+
+    public ObjectMapper createObjectMapper() {
+        return Util.createJsonObjectMapper(this == SMILE ? new SmileFactory() : null);
+    }
+}
@@ -4,31 +4,53 @@ import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
+import org.asamk.signal.AsyncJsonWriter;
 import org.asamk.signal.DbusConfig;
 import org.asamk.signal.DbusReceiveMessageHandler;
 import org.asamk.signal.JsonDbusReceiveMessageHandler;
+import org.asamk.signal.JsonReceiveMessageHandler;
 import org.asamk.signal.JsonWriter;
 import org.asamk.signal.OutputType;
 import org.asamk.signal.OutputWriter;
+import org.asamk.signal.OverflowPolicy;
 import org.asamk.signal.PlainTextWriter;
+import org.asamk.signal.ReceiveMessageBroadcaster;
+import org.asamk.signal.ReceiveMessageHandler;
+import org.asamk.signal.WireFormat;
 import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.IOErrorException;
 import org.asamk.signal.commands.exceptions.UnexpectedErrorException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
 import org.asamk.signal.dbus.DbusSignalControlImpl;
 import org.asamk.signal.dbus.DbusSignalImpl;
+import org.asamk.signal.jsonrpc.DaemonInfo;
+import org.asamk.signal.jsonrpc.JsonRpcNotification;
+import org.asamk.signal.jsonrpc.SignalJsonRpcDispatcherHandler;
 import org.asamk.signal.manager.Manager;
+import org.asamk.signal.util.IOUtils;
 import org.freedesktop.dbus.connections.impl.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DaemonCommand implements MultiLocalCommand {
 
     private final static Logger logger = LoggerFactory.getLogger(DaemonCommand.class);
 
+    private static final String DEFAULT_TCP_ADDRESS = "localhost:7583";
+    // A client that stops reading is disconnected, so it doesn't block the shared receive thread
+    private static final long SOCKET_WRITE_TIMEOUT = 60 * 1000;
+
     @Override
     public String getName() {
         return "daemon";
@@ -37,9 +59,26 @@ public class DaemonCommand implements MultiLocalCommand {
     @Override
     public void attachToSubparser(final Subparser subparser) {
         subparser.help("Run in daemon mode and provide an experimental dbus interface.");
+        subparser.addArgument("--dbus")
+                .action(Arguments.storeTrue())
+                .help("Expose a DBus interface on the user bus (the default, if --tcp isn't given).");
         subparser.addArgument("--system")
                 .action(Arguments.storeTrue())
                 .help("Use DBus system bus instead of user bus.");
+        subparser.addArgument("--tcp")
+                .nargs("?")
+                .setConst(DEFAULT_TCP_ADDRESS)
+                .help("Expose a JSON-RPC interface on a TCP socket (default " + DEFAULT_TCP_ADDRESS + ").");
+        subparser.addArgument("--output-overflow")
+                .type(Arguments.enumStringType(OverflowPolicy.class))
+                .setDefault(OverflowPolicy.DROP_OLDEST)
+                .help("What to do with new output, if a JSON-RPC client doesn't read fast enough. "
+                        + "\"drop-oldest\" drops queued receive notifications, responses are never dropped.");
+        subparser.addArgument("--wire-format")
+                .type(Arguments.enumStringType(WireFormat.class))
+                .setDefault(WireFormat.JSON)
+                .help("Encoding of the JSON-RPC messages on the TCP socket, "
+                        + "\"smile\" uses length-prefixed binary Smile messages.");
         subparser.addArgument("--ignore-attachments")
                 .help("Don’t download attachments of received messages.")
                 .action(Arguments.storeTrue());
@@ -56,26 +95,31 @@ public class DaemonCommand implements MultiLocalCommand {
     ) throws CommandException {
         boolean ignoreAttachments = Boolean.TRUE.equals(ns.getBoolean("ignore-attachments"));
 
-        DBusConnection.DBusBusType busType;
-        if (Boolean.TRUE.equals(ns.getBoolean("system"))) {
-            busType = DBusConnection.DBusBusType.SYSTEM;
-        } else {
-            busType = DBusConnection.DBusBusType.SESSION;
-        }
+        final var receiver = new ReceiveMessageBroadcaster(m);
+        try (var tcpServer = startTcpServer(ns, Map.of(m.getSelfNumber(), receiver), false)) {
+            if (!isDbusEnabled(ns)) {
+                receiver.addHandler(createOutputHandler(m, outputWriter));
+                receiver.receive(ignoreAttachments);
+                return;
+            }
 
-        try (var conn = DBusConnection.getConnection(busType)) {
-            var objectPath = DbusConfig.getObjectPath();
-            var t = run(conn, objectPath, m, outputWriter, ignoreAttachments);
+            try (var conn = DBusConnection.getConnection(getBusType(ns))) {
+                var objectPath = DbusConfig.getObjectPath();
+                var t = run(conn, objectPath, receiver, outputWriter, ignoreAttachments);
 
-            conn.requestBusName(DbusConfig.getBusname());
+                conn.requestBusName(DbusConfig.getBusname());
 
-            try {
-                t.join();
-            } catch (InterruptedException ignored) {
+                try {
+                    t.join();
+                } catch (InterruptedException ignored) {
+                }
+            } catch (DBusException e) {
+                logger.error("Dbus command failed", e);
+                throw new UnexpectedErrorException("Dbus command failed", e);
             }
-        } catch (DBusException | IOException e) {
-            logger.error("Dbus command failed", e);
-            throw new UnexpectedErrorException("Dbus command failed", e);
+        } catch (IOException e) {
+            logger.error("Daemon command failed", e);
+            throw new UnexpectedErrorException("Daemon command failed", e);
         }
     }
 
@@ -85,41 +129,197 @@ public class DaemonCommand implements MultiLocalCommand {
     ) throws CommandException {
         boolean ignoreAttachments = Boolean.TRUE.equals(ns.getBoolean("ignore-attachments"));
 
-        DBusConnection.DBusBusType busType;
+        final var receivers = new ConcurrentHashMap<String, ReceiveMessageBroadcaster>();
+        for (var m : managers) {
+            receivers.put(m.getSelfNumber(), new ReceiveMessageBroadcaster(m));
+        }
+
+        try (var tcpServer = startTcpServer(ns, receivers, true)) {
+            if (!isDbusEnabled(ns)) {
+                final var threads = new ArrayList<Thread>();
+                for (var receiver : receivers.values()) {
+                    receiver.addHandler(createOutputHandler(receiver.getManager(), outputWriter));
+                    threads.add(receiver.start(ignoreAttachments));
+                }
+                for (var t : threads) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                return;
+            }
+
+            try (var conn = DBusConnection.getConnection(getBusType(ns))) {
+                final var signalControl = new DbusSignalControlImpl(c, m -> {
+                    try {
+                        final var objectPath = DbusConfig.getObjectPath(m.getSelfNumber());
+                        // Managers of newly registered accounts don't have a receiver yet
+                        final var receiver = receivers.computeIfAbsent(m.getSelfNumber(),
+                                n -> new ReceiveMessageBroadcaster(m));
+                        return run(conn, objectPath, receiver, outputWriter, ignoreAttachments);
+                    } catch (DBusException e) {
+                        logger.error("Failed to export object", e);
+                        return null;
+                    }
+                }, DbusConfig.getObjectPath());
+                conn.exportObject(signalControl);
+
+                for (var m : managers) {
+                    signalControl.addManager(m);
+                }
+
+                conn.requestBusName(DbusConfig.getBusname());
+
+                signalControl.run();
+            } catch (DBusException e) {
+                logger.error("Dbus command failed", e);
+                throw new UnexpectedErrorException("Dbus command failed", e);
+            }
+        } catch (IOException e) {
+            logger.error("Daemon command failed", e);
+            throw new UnexpectedErrorException("Daemon command failed", e);
+        }
+    }
+
+    private static boolean isDbusEnabled(final Namespace ns) {
+        return Boolean.TRUE.equals(ns.getBoolean("dbus"))
+                || Boolean.TRUE.equals(ns.getBoolean("system"))
+                || ns.getString("tcp") == null;
+    }
+
+    private static DBusConnection.DBusBusType getBusType(final Namespace ns) {
         if (Boolean.TRUE.equals(ns.getBoolean("system"))) {
-            busType = DBusConnection.DBusBusType.SYSTEM;
+            return DBusConnection.DBusBusType.SYSTEM;
         } else {
-            busType = DBusConnection.DBusBusType.SESSION;
+            return DBusConnection.DBusBusType.SESSION;
         }
+    }
 
-        try (var conn = DBusConnection.getConnection(busType)) {
-            final var signalControl = new DbusSignalControlImpl(c, m -> {
+    private static Manager.ReceiveMessageHandler createOutputHandler(
+            final Manager m, final OutputWriter outputWriter
+    ) {
+        return outputWriter instanceof JsonWriter
+                ? new JsonReceiveMessageHandler(m, (JsonWriter) outputWriter)
+                : new ReceiveMessageHandler(m, (PlainTextWriter) outputWriter);
+    }
+
+    /**
+     * Starts a JSON-RPC server that accepts connections in the background, until the returned server is closed.
+     * While it's running, the daemon info in the data directory lets clients forward their commands to it.
+     *
+     * @return the server or null, if no address is given
+     */
+    private Closeable startTcpServer(
+            final Namespace ns, final Map<String, ReceiveMessageBroadcaster> receivers, final boolean multiAccount
+    ) throws CommandException {
+        final var address = ns.getString("tcp");
+        final OverflowPolicy overflowPolicy = ns.get("output-overflow");
+        final WireFormat wireFormat = ns.get("wire-format");
+        if (address == null) {
+            return null;
+        }
+
+        final var socketAddress = parseSocketAddress(address);
+        final ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(socketAddress);
+        } catch (IOException e) {
+            throw new IOErrorException("Failed to bind to TCP socket " + address, e);
+        }
+        logger.info("Started JSON-RPC server on {}", socketAddress);
+
+        final var dataPath = IOUtils.getDataPath(ns.getString("config"));
+        final var daemonInfo = DaemonInfo.create((InetSocketAddress) serverSocket.getLocalSocketAddress(),
+                wireFormat);
+        try {
+            daemonInfo.store(dataPath);
+        } catch (IOException e) {
+            logger.warn("Failed to store daemon info, commands won't be forwarded to this daemon: {}",
+                    e.getMessage());
+        }
+
+        final var thread = new Thread(() -> {
+            while (!Thread.interrupted()) {
+                final Socket socket;
                 try {
-                    final var objectPath = DbusConfig.getObjectPath(m.getSelfNumber());
-                    return run(conn, objectPath, m, outputWriter, ignoreAttachments);
-                } catch (DBusException e) {
-                    logger.error("Failed to export object", e);
-                    return null;
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        logger.error("Failed to accept new socket connection", e);
+                    }
+                    break;
                 }
-            }, DbusConfig.getObjectPath());
-            conn.exportObject(signalControl);
-
-            for (var m : managers) {
-                signalControl.addManager(m);
+                final var connectionThread = new Thread(() -> handleConnection(socket,
+                        receivers,
+                        multiAccount,
+                        overflowPolicy,
+                        wireFormat,
+                        daemonInfo.getDaemonId()));
+                connectionThread.setDaemon(true);
+                connectionThread.start();
             }
+        });
+        thread.setDaemon(true);
+        thread.start();
 
-            conn.requestBusName(DbusConfig.getBusname());
+        return () -> {
+            daemonInfo.delete(dataPath);
+            serverSocket.close();
+        };
+    }
 
-            signalControl.run();
-        } catch (DBusException | IOException e) {
-            logger.error("Dbus command failed", e);
-            throw new UnexpectedErrorException("Dbus command failed", e);
+    public static InetSocketAddress parseSocketAddress(final String address) throws UserErrorException {
+        final var colon = address.lastIndexOf(':');
+        final var host = colon == -1 ? "localhost" : address.substring(0, colon);
+        try {
+            final var port = Integer.parseInt(address.substring(colon + 1));
+            return new InetSocketAddress(host, port);
+        } catch (IllegalArgumentException e) {
+            throw new UserErrorException("Invalid TCP address, expected [HOST:]PORT: " + address);
         }
     }
 
+    private void handleConnection(
+            final Socket socket,
+            final Map<String, ReceiveMessageBroadcaster> receivers,
+            final boolean multiAccount,
+            final OverflowPolicy overflowPolicy,
+            final WireFormat wireFormat,
+            final String daemonId
+    ) {
+        logger.info("Accepted new client connection from {}", socket.getRemoteSocketAddress());
+        try (socket; var jsonWriter = new AsyncJsonWriter(socket.getOutputStream(),
+                wireFormat,
+                AsyncJsonWriter.DEFAULT_CAPACITY,
+                overflowPolicy,
+                o -> o instanceof JsonRpcNotification,
+                SOCKET_WRITE_TIMEOUT)) {
+            final var handler = new SignalJsonRpcDispatcherHandler(jsonWriter,
+                    socket.getInputStream(),
+                    wireFormat,
+                    SignalJsonRpcDispatcherHandler.DEFAULT_MAX_CONCURRENT_REQUESTS,
+                    receivers,
+                    multiAccount);
+            handler.setDaemonId(daemonId);
+
+            handler.subscribeReceive();
+            handler.handleConnection();
+        } catch (IOException e) {
+            logger.warn("Failed to handle client connection", e);
+        }
+        logger.info("Connection closed: {}", socket.getRemoteSocketAddress());
+    }
+
     private Thread run(
-            DBusConnection conn, String objectPath, Manager m, OutputWriter outputWriter, boolean ignoreAttachments
+            DBusConnection conn,
+            String objectPath,
+            ReceiveMessageBroadcaster receiver,
+            OutputWriter outputWriter,
+            boolean ignoreAttachments
     ) throws DBusException {
+        final var m = receiver.getManager();
         final var signal = new DbusSignalImpl(m, conn, objectPath);
         conn.exportObject(signal);
         final var initThread = new Thread(signal::initObjects);
@@ -127,18 +327,12 @@ public class DaemonCommand implements MultiLocalCommand {
 
         logger.info("Exported dbus object: " + objectPath);
 
+        receiver.addHandler(outputWriter instanceof JsonWriter
+                ? new JsonDbusReceiveMessageHandler(m, (JsonWriter) outputWriter, conn, objectPath)
+                : new DbusReceiveMessageHandler(m, (PlainTextWriter) outputWriter, conn, objectPath));
+
         final var thread = new Thread(() -> {
-            while (!Thread.interrupted()) {
-                try {
-                    final var receiveMessageHandler = outputWriter instanceof JsonWriter
-                            ? new JsonDbusReceiveMessageHandler(m, (JsonWriter) outputWriter, conn, objectPath)
-                            : new DbusReceiveMessageHandler(m, (PlainTextWriter) outputWriter, conn, objectPath);
-                    m.receiveMessages(1, TimeUnit.HOURS, false, ignoreAttachments, receiveMessageHandler);
-                    break;
-                } catch (IOException e) {
-                    logger.warn("Receiving messages failed, retrying", e);
-                }
-            }
+            receiver.receive(ignoreAttachments);
             try {
                 initThread.join();
             } catch (InterruptedException ignored) {
@@ -10,6 +10,7 @@ import org.asamk.signal.PlainTextWriter;
 import org.asamk.signal.commands.exceptions.CommandException;
 import org.asamk.signal.manager.Manager;
 import org.asamk.signal.manager.api.Group;
+import org.asamk.signal.manager.storage.groups.GroupSummary;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,38 +47,46 @@ public class ListGroupsCommand implements JsonRpcLocalCommand {
                 .collect(Collectors.toSet());
     }
 
-    private static void printGroupPlainText(
-            PlainTextWriter writer, Group group, boolean detailed
-    ) {
-        if (detailed) {
-            final var groupInviteLink = group.getGroupInviteLinkUrl();
-
-            writer.println(
-                    "Id: {} Name: {} Description: {} Active: {} Blocked: {} Members: {} Pending members: {} Requesting members: {} Admins: {} Message expiration: {} Link: {}",
-                    group.getGroupId().toBase64(),
-                    group.getTitle(),
-                    group.getDescription(),
-                    group.isMember(),
-                    group.isBlocked(),
-                    resolveMembers(group.getMembers()),
-                    resolveMembers(group.getPendingMembers()),
-                    resolveMembers(group.getRequestingMembers()),
-                    resolveMembers(group.getAdminMembers()),
-                    group.getMessageExpirationTime() == 0 ? "disabled" : group.getMessageExpirationTime() + "s",
-                    groupInviteLink == null ? '-' : groupInviteLink.getUrl());
-        } else {
-            writer.println("Id: {} Name: {}  Active: {} Blocked: {}",
-                    group.getGroupId().toBase64(),
-                    group.getTitle(),
-                    group.isMember(),
-                    group.isBlocked());
-        }
+    private static void printGroupPlainText(PlainTextWriter writer, Group group) {
+        final var groupInviteLink = group.getGroupInviteLinkUrl();
+
+        writer.println(
+                "Id: {} Name: {} Description: {} Active: {} Blocked: {} Members: {} Pending members: {} Requesting members: {} Admins: {} Message expiration: {} Link: {}",
+                group.getGroupId().toBase64(),
+                group.getTitle(),
+                group.getDescription(),
+                group.isMember(),
+                group.isBlocked(),
+                resolveMembers(group.getMembers()),
+                resolveMembers(group.getPendingMembers()),
+                resolveMembers(group.getRequestingMembers()),
+                resolveMembers(group.getAdminMembers()),
+                group.getMessageExpirationTime() == 0 ? "disabled" : group.getMessageExpirationTime() + "s",
+                groupInviteLink == null ? '-' : groupInviteLink.getUrl());
+    }
+
+    private static void printGroupSummaryPlainText(PlainTextWriter writer, GroupSummary group) {
+        writer.println("Id: {} Name: {}  Active: {} Blocked: {}",
+                group.getGroupId().toBase64(),
+                group.getTitle(),
+                group.isMember(),
+                group.isBlocked());
     }
 
     @Override
     public void handleCommand(
             final Namespace ns, final Manager m, final OutputWriter outputWriter
     ) throws CommandException {
+        boolean detailed = Boolean.TRUE.equals(ns.getBoolean("detailed"));
+        if (outputWriter instanceof PlainTextWriter && !detailed) {
+            // The summaries don't need the members, so the groups don't have to be loaded
+            final var writer = (PlainTextWriter) outputWriter;
+            for (var group : m.getGroupSummaries()) {
+                printGroupSummaryPlainText(writer, group);
+            }
+            return;
+        }
+
         final var groups = m.getGroups();
 
         if (outputWriter instanceof JsonWriter) {
@@ -102,9 +111,8 @@ public class ListGroupsCommand implements JsonRpcLocalCommand {
             jsonWriter.write(jsonGroups);
         } else {
             final var writer = (PlainTextWriter) outputWriter;
-            boolean detailed = Boolean.TRUE.equals(ns.getBoolean("detailed"));
             for (var group : groups) {
-                printGroupPlainText(writer, group, detailed);
+                printGroupPlainText(writer, group);
             }
         }
     }
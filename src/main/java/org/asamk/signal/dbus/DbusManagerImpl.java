@@ -23,6 +23,8 @@ import org.asamk.signal.manager.groups.GroupPermission;
 import org.asamk.signal.manager.groups.GroupSendingNotAllowedException;
 import org.asamk.signal.manager.groups.LastGroupAdminException;
 import org.asamk.signal.manager.groups.NotAGroupMemberException;
+import org.asamk.signal.manager.storage.groups.GroupSummary;
+import org.asamk.signal.manager.storage.messageCache.PendingMessageStore;
 import org.asamk.signal.manager.storage.recipients.Contact;
 import org.asamk.signal.manager.storage.recipients.Profile;
 import org.asamk.signal.manager.storage.recipients.RecipientAddress;
@@ -186,6 +188,22 @@ public class DbusManagerImpl implements Manager {
         return groupIds.stream().map(id -> getGroup(GroupId.unknownVersion(id))).collect(Collectors.toList());
     }
 
+    @Override
+    public List<GroupSummary> getGroupSummaries() {
+        return getGroups().stream()
+                .map(group -> new GroupSummary(group.getGroupId(),
+                        group.getTitle(),
+                        group.isMember(),
+                        group.isBlocked(),
+                        -1))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<GroupId> getGroupIds() {
+        return signal.getGroupIds().stream().map(GroupId::unknownVersion).collect(Collectors.toList());
+    }
+
     @Override
     public SendGroupMessageResults quitGroup(
             final GroupId groupId, final Set<RecipientIdentifier.Single> groupAdmins
@@ -393,6 +411,11 @@ public class DbusManagerImpl implements Manager {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public PendingMessageStore getPendingMessageStore() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void sendContacts() throws IOException {
         signal.sendContacts();
@@ -419,10 +419,10 @@ public class DbusSignalImpl implements Signal {
 
     @Override
     public List<byte[]> getGroupIds() {
-        var groups = m.getGroups();
-        var ids = new ArrayList<byte[]>(groups.size());
-        for (var group : groups) {
-            ids.add(group.getGroupId().serialize());
+        var groupIds = m.getGroupIds();
+        var ids = new ArrayList<byte[]>(groupIds.size());
+        for (var groupId : groupIds) {
+            ids.add(groupId.serialize());
         }
         return ids;
     }
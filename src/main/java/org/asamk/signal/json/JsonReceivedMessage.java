@@ -0,0 +1,27 @@
+package org.asamk.signal.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class JsonReceivedMessage {
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    final String account;
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    final JsonMessageEnvelope envelope;
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    final JsonError error;
+
+    public JsonReceivedMessage(
+            final String account, final JsonMessageEnvelope envelope, final JsonError error
+    ) {
+        this.account = account;
+        this.envelope = envelope;
+        this.error = error;
+    }
+}
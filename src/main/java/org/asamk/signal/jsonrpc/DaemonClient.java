@@ -0,0 +1,172 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+
+import org.asamk.signal.WireFormat;
+import org.asamk.signal.commands.DaemonCommand;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client for the JSON-RPC interface of a daemon, that's running with the --tcp option.
+ */
+public class DaemonClient implements Closeable {
+
+    private final static Logger logger = LoggerFactory.getLogger(DaemonClient.class);
+
+    private final static int CONNECT_TIMEOUT = 500;
+    // Until the daemon is verified, an unresponsive listener only delays the local execution briefly
+    private final static int HANDSHAKE_TIMEOUT = 5000;
+    private final static int REQUEST_TIMEOUT = 10 * 60 * 1000;
+    private final static int MAX_FRAME_SIZE = 100 * 1024 * 1024;
+
+    private final Socket socket;
+    private final WireFormat wireFormat;
+    private final ObjectMapper objectMapper;
+    private final DataOutputStream output;
+    private final DataInputStream input;
+    private JsonParser parser;
+    private List<String> accounts;
+    private int nextRequestId = 1;
+
+    private DaemonClient(final Socket socket, final WireFormat wireFormat) throws IOException {
+        this.socket = socket;
+        this.wireFormat = wireFormat;
+        this.objectMapper = wireFormat.createObjectMapper();
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.input = new DataInputStream(socket.getInputStream());
+    }
+
+    /**
+     * Connects to the daemon described by the info, stops its receive notifications for this connection and
+     * verifies that it's the daemon that wrote the info.
+     *
+     * @return the client or null, if the daemon isn't running or doesn't respond in time
+     */
+    public static DaemonClient connect(final DaemonInfo daemonInfo) {
+        final var socket = new Socket();
+        try {
+            socket.connect(DaemonCommand.parseSocketAddress(daemonInfo.getAddress()), CONNECT_TIMEOUT);
+        } catch (IOException | UserErrorException e) {
+            logger.debug("No daemon is listening on {}: {}", daemonInfo.getAddress(), e.getMessage());
+            closeQuietly(socket);
+            return null;
+        }
+
+        try {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            final var client = new DaemonClient(socket, daemonInfo.getWireFormat());
+            client.request("unsubscribe", null);
+            final var result = client.request("listAccounts", null);
+            if (!daemonInfo.getDaemonId().equals(result.path("daemonId").asText(null))) {
+                logger.debug("Listener on {} isn't the daemon of this data directory", daemonInfo.getAddress());
+                closeQuietly(socket);
+                return null;
+            }
+            final var accounts = new ArrayList<String>();
+            result.path("accounts").forEach(account -> accounts.add(account.asText()));
+            client.accounts = accounts;
+            // Forwarded commands may take a while, e.g. sending to a large group
+            socket.setSoTimeout(REQUEST_TIMEOUT);
+            return client;
+        } catch (IOException | JsonRpcException e) {
+            logger.debug("Failed to initialize daemon connection: {}", e.getMessage());
+            closeQuietly(socket);
+            return null;
+        }
+    }
+
+    /**
+     * @return the accounts the daemon provides
+     */
+    public List<String> getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * Sends a request and waits for its result, notifications sent in between are skipped.
+     *
+     * @throws JsonRpcException if the daemon responds with an error
+     */
+    public JsonNode request(final String method, final ContainerNode<?> params) throws IOException, JsonRpcException {
+        final var id = IntNode.valueOf(nextRequestId++);
+        final var request = JsonRpcRequest.forNotification(method, params, id);
+        final var bytes = objectMapper.writeValueAsBytes(request);
+        if (wireFormat.isFramed()) {
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        } else {
+            output.write(bytes);
+            output.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+        }
+        output.flush();
+
+        JsonNode message;
+        while ((message = readMessage()) != null) {
+            if (!message.isObject() || !id.equals(message.get("id"))) {
+                continue;
+            }
+            final var response = objectMapper.treeToValue(message, JsonRpcResponse.class);
+            if (response.getError() != null) {
+                throw new JsonRpcException(response.getError());
+            }
+            return response.getResult();
+        }
+        throw new IOException("Connection closed by daemon");
+    }
+
+    /**
+     * @return the next message from the daemon or null, if the connection was closed
+     */
+    private JsonNode readMessage() throws IOException {
+        if (!wireFormat.isFramed()) {
+            if (parser == null) {
+                parser = objectMapper.getFactory().createParser(input);
+            }
+            return parser.nextToken() == null ? null : objectMapper.readTree(parser);
+        }
+
+        final int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        final var bytes = input.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Unexpected end of frame");
+        }
+        return objectMapper.readTree(bytes);
+    }
+
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,134 @@
+package org.asamk.signal.jsonrpc;
+
+import org.asamk.signal.WireFormat;
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Describes the JSON-RPC server of a running daemon.
+ * It's stored in the daemon's data directory, so clients only forward commands to a daemon with the same data.
+ */
+public class DaemonInfo {
+
+    private final static Logger logger = LoggerFactory.getLogger(DaemonInfo.class);
+
+    private final static String FILE_NAME = "daemon.json";
+
+    private final String address;
+    private final WireFormat wireFormat;
+    private final String daemonId;
+
+    private DaemonInfo(final String address, final WireFormat wireFormat, final String daemonId) {
+        this.address = address;
+        this.wireFormat = wireFormat;
+        this.daemonId = daemonId;
+    }
+
+    /**
+     * Creates the info for a server bound to the given address, with a new random daemon id.
+     */
+    public static DaemonInfo create(final InetSocketAddress address, final WireFormat wireFormat) {
+        final var host = address.getAddress() == null || address.getAddress().isAnyLocalAddress()
+                ? "localhost"
+                : address.getAddress().getHostAddress();
+        final var id = new byte[16];
+        new SecureRandom().nextBytes(id);
+        return new DaemonInfo(host + ":" + address.getPort(),
+                wireFormat,
+                Base64.getUrlEncoder().withoutPadding().encodeToString(id));
+    }
+
+    /**
+     * @return the info of the daemon using the data directory or null, if no daemon with a TCP server is running
+     */
+    public static DaemonInfo load(final File dataPath) {
+        final var objectMapper = Util.createJsonObjectMapper();
+        try (var inputStream = new FileInputStream(new File(dataPath, FILE_NAME))) {
+            final var storage = objectMapper.readValue(inputStream, Storage.class);
+            WireFormat wireFormat = null;
+            for (var format : WireFormat.values()) {
+                if (format.toString().equals(storage.wireFormat)) {
+                    wireFormat = format;
+                }
+            }
+            if (storage.address == null || wireFormat == null || storage.daemonId == null) {
+                logger.debug("Ignoring invalid daemon info file");
+                return null;
+            }
+            return new DaemonInfo(storage.address, wireFormat, storage.daemonId);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.debug("Failed to read daemon info file: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the info to the data directory, only readable by the current user.
+     */
+    public void store(final File dataPath) throws IOException {
+        final var file = new File(dataPath, FILE_NAME);
+        Files.deleteIfExists(file.toPath());
+        org.asamk.signal.manager.util.IOUtils.createPrivateFile(file);
+        try (var outputStream = new FileOutputStream(file)) {
+            Util.createJsonObjectMapper()
+                    .writeValue(outputStream, new Storage(address, wireFormat.toString(), daemonId));
+        }
+    }
+
+    /**
+     * Removes the info from the data directory, unless it has been replaced by another daemon.
+     */
+    public void delete(final File dataPath) {
+        final var stored = load(dataPath);
+        if (stored == null || !daemonId.equals(stored.daemonId)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(new File(dataPath, FILE_NAME).toPath());
+        } catch (IOException e) {
+            logger.warn("Failed to delete daemon info file, ignoring: {}", e.getMessage());
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public String getDaemonId() {
+        return daemonId;
+    }
+
+    private static class Storage {
+
+        public String address;
+        public String wireFormat;
+        public String daemonId;
+
+        // For deserialization
+        private Storage() {
+        }
+
+        private Storage(final String address, final String wireFormat, final String daemonId) {
+            this.address = address;
+            this.wireFormat = wireFormat;
+            this.daemonId = daemonId;
+        }
+    }
+}
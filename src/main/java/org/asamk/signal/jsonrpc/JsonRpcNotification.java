@@ -0,0 +1,36 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Represents an outgoing JSON-RPC notification, a request without an id.
+ * Unlike {@link JsonRpcRequest} the params can be any serializable object, so they are written to the output
+ * directly, without building a json tree first.
+ * https://www.jsonrpc.org/specification#notification
+ */
+public class JsonRpcNotification extends JsonRpcMessage {
+
+    private final String jsonrpc = "2.0";
+
+    private final String method;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final Object params;
+
+    public JsonRpcNotification(final String method, final Object params) {
+        this.method = method;
+        this.params = params;
+    }
+
+    public String getJsonrpc() {
+        return jsonrpc;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public Object getParams() {
+        return params;
+    }
+}
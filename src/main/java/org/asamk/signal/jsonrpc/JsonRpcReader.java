@@ -1,20 +1,37 @@
 package org.asamk.signal.jsonrpc;
 
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.ValueNode;
 
-import org.asamk.signal.util.Util;
+import org.asamk.signal.WireFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -22,16 +39,67 @@ public class JsonRpcReader {
 
     private final static Logger logger = LoggerFactory.getLogger(JsonRpcReader.class);
 
+    private final static int MAX_FRAME_SIZE = 100 * 1024 * 1024;
+
     private final JsonRpcSender jsonRpcSender;
+    private final WireFormat wireFormat;
     private final ObjectMapper objectMapper;
-    private final Supplier<String> lineSupplier;
+    private final Executor executor;
+    private final Map<String, LimitedExecutor> methodExecutors = new ConcurrentHashMap<>();
+    private final Map<Object, CompletableFuture<JsonRpcResponse>> conversations = new HashMap<>();
+    private final Set<CompletableFuture<?>> pendingResponses = ConcurrentHashMap.newKeySet();
+    private Function<JsonRpcRequest, Object> conversationKeyFunction = request -> null;
+    private InputStream input;
+    private JsonParser parser;
+    private DataInputStream dataInput;
 
     public JsonRpcReader(
-            final JsonRpcSender jsonRpcSender, final Supplier<String> lineSupplier
+            final JsonRpcSender jsonRpcSender, final InputStream input
+    ) {
+        this(jsonRpcSender, input, Runnable::run);
+    }
+
+    /**
+     * The input is read as a stream of JSON values, which may be separated by whitespace or newlines and may span
+     * multiple lines.
+     *
+     * @param executor executes the requests, responses are sent in the order the requests complete.
+     */
+    public JsonRpcReader(
+            final JsonRpcSender jsonRpcSender, final InputStream input, final Executor executor
+    ) {
+        this(jsonRpcSender, input, WireFormat.JSON, executor);
+    }
+
+    /**
+     * @param wireFormat the encoding of the input, with a framed format each value is read as one length-prefixed
+     *                   frame.
+     */
+    public JsonRpcReader(
+            final JsonRpcSender jsonRpcSender,
+            final InputStream input,
+            final WireFormat wireFormat,
+            final Executor executor
     ) {
         this.jsonRpcSender = jsonRpcSender;
-        this.lineSupplier = lineSupplier;
-        this.objectMapper = Util.createJsonObjectMapper();
+        this.input = input;
+        this.wireFormat = wireFormat;
+        this.executor = executor;
+        this.objectMapper = wireFormat.createObjectMapper();
+    }
+
+    /**
+     * Limits the number of concurrently executed requests for the given method.
+     */
+    public void setMethodConcurrencyLimit(final String method, final int limit) {
+        methodExecutors.put(method, new LimitedExecutor(executor, limit));
+    }
+
+    /**
+     * Requests with the same non-null conversation key are executed one after another in the order they were read.
+     */
+    public void setConversationKeyFunction(final Function<JsonRpcRequest, Object> conversationKeyFunction) {
+        this.conversationKeyFunction = conversationKeyFunction;
     }
 
     public void readRequests(
@@ -42,27 +110,73 @@ public class JsonRpcReader {
             if (message == null) break;
 
             if (message instanceof JsonRpcRequest) {
-                final var response = handleRequest(requestHandler, (JsonRpcRequest) message);
-                if (response != null) {
-                    jsonRpcSender.sendResponse(response);
-                }
+                final var future = submitRequest(requestHandler, (JsonRpcRequest) message).thenAccept(response -> {
+                    if (response != null) {
+                        jsonRpcSender.sendResponse(response);
+                    }
+                });
+                addPendingResponse(future);
             } else if (message instanceof JsonRpcResponse) {
                 responseHandler.accept((JsonRpcResponse) message);
             } else {
-                final var responseList = ((JsonRpcBulkMessage) message).getMessages().stream().map(jsonNode -> {
+                final var futures = ((JsonRpcBulkMessage) message).getMessages().stream().map(jsonNode -> {
                     final JsonRpcRequest request;
                     try {
                         request = parseJsonRpcRequest(jsonNode);
                     } catch (JsonRpcException e) {
-                        return JsonRpcResponse.forError(e.getError(), getId(jsonNode));
+                        return CompletableFuture.completedFuture(JsonRpcResponse.forError(e.getError(),
+                                getId(jsonNode)));
                     }
 
-                    return handleRequest(requestHandler, request);
-                }).filter(Objects::nonNull).collect(Collectors.toList());
+                    return submitRequest(requestHandler, request);
+                }).collect(Collectors.toList());
 
-                jsonRpcSender.sendBulkResponses(responseList);
+                final var future = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                        .thenRun(() -> jsonRpcSender.sendBulkResponses(futures.stream()
+                                .map(CompletableFuture::join)
+                                .filter(Objects::nonNull)
+                                .collect(Collectors.toList())));
+                addPendingResponse(future);
             }
         }
+
+        // Wait until the responses for all read requests have been sent
+        CompletableFuture.allOf(pendingResponses.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+    }
+
+    private void addPendingResponse(final CompletableFuture<?> future) {
+        pendingResponses.add(future);
+        future.whenComplete((r, e) -> {
+            if (e != null) {
+                logger.warn("Failed to send response: {}", e.getMessage());
+            }
+            pendingResponses.remove(future);
+        });
+    }
+
+    private CompletableFuture<JsonRpcResponse> submitRequest(
+            final RequestHandler requestHandler, final JsonRpcRequest request
+    ) {
+        final var methodExecutor = methodExecutors.get(request.getMethod());
+        final var requestExecutor = methodExecutor == null ? executor : methodExecutor;
+        final var conversationKey = conversationKeyFunction.apply(request);
+        if (conversationKey == null) {
+            return CompletableFuture.supplyAsync(() -> handleRequest(requestHandler, request), requestExecutor);
+        }
+
+        synchronized (conversations) {
+            final var previous = conversations.get(conversationKey);
+            final var future = previous == null
+                    ? CompletableFuture.supplyAsync(() -> handleRequest(requestHandler, request), requestExecutor)
+                    : previous.handleAsync((r, e) -> handleRequest(requestHandler, request), requestExecutor);
+            conversations.put(conversationKey, future);
+            future.whenComplete((r, e) -> {
+                synchronized (conversations) {
+                    conversations.remove(conversationKey, future);
+                }
+            });
+            return future;
+        }
     }
 
     private JsonRpcResponse handleRequest(final RequestHandler requestHandler, final JsonRpcRequest request) {
@@ -82,20 +196,48 @@ public class JsonRpcReader {
                         request.getMethod(),
                         e.getMessage());
             }
+        } catch (RuntimeException e) {
+            logger.error("Command '{}' failed unexpectedly", request.getMethod(), e);
+            if (request.getId() != null) {
+                return JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                        e.getMessage(),
+                        null), request.getId());
+            }
         }
         return null;
     }
 
     private JsonRpcMessage readMessage() {
         while (!Thread.interrupted()) {
-            String input = lineSupplier.get();
+            final JsonNode jsonNode;
+            try {
+                jsonNode = readNextValue();
+            } catch (JsonParseException e) {
+                jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
+                        e.getMessage(),
+                        null), null));
+                if (wireFormat.isFramed()) {
+                    // The invalid frame has already been read completely
+                    continue;
+                }
+                try {
+                    skipInvalidInput();
+                } catch (IOException ex) {
+                    logger.debug("Failed to read input: {}", ex.getMessage());
+                    break;
+                }
+                continue;
+            } catch (IOException e) {
+                logger.debug("Failed to read input: {}", e.getMessage());
+                break;
+            }
 
-            if (input == null) {
+            if (jsonNode == null) {
                 // Reached end of input stream
                 break;
             }
 
-            JsonRpcMessage message = parseJsonRpcMessage(input);
+            JsonRpcMessage message = parseJsonRpcMessage(jsonNode);
             if (message == null) continue;
 
             return message;
@@ -104,20 +246,79 @@ public class JsonRpcReader {
         return null;
     }
 
-    private JsonRpcMessage parseJsonRpcMessage(final String input) {
-        final JsonNode jsonNode;
+    /**
+     * Parses the next JSON value directly from the input stream.
+     *
+     * @return the next value or null, if the end of the input is reached
+     */
+    private JsonNode readNextValue() throws IOException {
+        if (wireFormat.isFramed()) {
+            return readNextFrame();
+        }
+        if (parser == null) {
+            parser = objectMapper.getFactory().createParser(input);
+            // The input is owned by the caller, e.g. a socket that's still needed to send the last responses
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        }
+        if (parser.nextToken() == null) {
+            return null;
+        }
+        return objectMapper.readTree(parser);
+    }
+
+    /**
+     * Reads the next length-prefixed value, it's parsed while the frame is read, without buffering the whole frame.
+     *
+     * @return the next value or null, if the end of the input is reached
+     */
+    private JsonNode readNextFrame() throws IOException {
+        if (dataInput == null) {
+            dataInput = new DataInputStream(input);
+        }
+        final int length;
         try {
-            jsonNode = objectMapper.readTree(input);
-        } catch (JsonParseException e) {
-            jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.PARSE_ERROR,
-                    e.getMessage(),
-                    null), null));
+            length = dataInput.readInt();
+        } catch (EOFException e) {
             return null;
-        } catch (IOException e) {
-            throw new AssertionError(e);
+        }
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        final var frameInput = new FrameInputStream(dataInput, length);
+        try {
+            final var jsonNode = objectMapper.readTree(frameInput);
+            // A frame without a value is an invalid request, not the end of the input
+            return jsonNode == null ? MissingNode.getInstance() : jsonNode;
+        } finally {
+            // Skip the rest of the frame, if the value was shorter or invalid
+            frameInput.skipRemaining();
+        }
+    }
+
+    /**
+     * Discards the rest of the line containing invalid JSON and continues with a new parser after it.
+     */
+    private void skipInvalidInput() throws IOException {
+        final var buffered = new ByteArrayOutputStream();
+        parser.releaseBuffered(buffered);
+        parser = null;
+
+        final var bytes = buffered.toByteArray();
+        for (var i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                input = new SequenceInputStream(new ByteArrayInputStream(bytes, i + 1, bytes.length - i - 1), input);
+                return;
+            }
         }
 
-        if (jsonNode == null) {
+        int b;
+        do {
+            b = input.read();
+        } while (b != -1 && b != '\n');
+    }
+
+    private JsonRpcMessage parseJsonRpcMessage(final JsonNode jsonNode) {
+        if (jsonNode == null || jsonNode.isMissingNode()) {
             jsonRpcSender.sendResponse(JsonRpcResponse.forError(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
                     "invalid request",
                     null), null));
@@ -156,16 +357,30 @@ public class JsonRpcReader {
     }
 
     private JsonRpcRequest parseJsonRpcRequest(final JsonNode input) throws JsonRpcException {
-        JsonRpcRequest request;
-        try {
-            request = objectMapper.treeToValue(input, JsonRpcRequest.class);
-        } catch (JsonMappingException e) {
+        // The request fields are taken from the parsed tree directly, instead of binding the tree again
+        if (!input.isObject()) {
             throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
-                    e.getMessage(),
+                    "request must be an object",
                     null));
-        } catch (IOException e) {
-            throw new AssertionError(e);
         }
+        final var params = input.get("params");
+        if (params != null && !params.isNull() && !params.isContainerNode()) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
+                    "params must be an object or array",
+                    null));
+        }
+        final var id = input.get("id");
+        if (id != null && !id.isValueNode()) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
+                    "id must be a string, number or null",
+                    null));
+        }
+        final var jsonrpc = input.get("jsonrpc");
+        final var method = input.get("method");
+        final var request = new JsonRpcRequest(jsonrpc == null || !jsonrpc.isTextual() ? null : jsonrpc.asText(),
+                method == null || !method.isTextual() ? null : method.asText(),
+                params == null || params.isNull() ? null : (ContainerNode<?>) params,
+                (ValueNode) id);
 
         if (!"2.0".equals(request.getJsonrpc())) {
             throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
@@ -186,11 +401,9 @@ public class JsonRpcReader {
         JsonRpcResponse response;
         try {
             response = objectMapper.treeToValue(input, JsonRpcResponse.class);
-        } catch (JsonParseException | JsonMappingException e) {
+        } catch (JsonProcessingException e) {
             logger.debug("Received invalid jsonrpc response {}", e.getMessage());
             return null;
-        } catch (IOException e) {
-            throw new AssertionError(e);
         }
 
         if (!"2.0".equals(response.getJsonrpc())) {
@@ -220,4 +433,116 @@ public class JsonRpcReader {
 
         JsonNode apply(String method, ContainerNode<?> params) throws JsonRpcException;
     }
+
+    /**
+     * Reads at most the remaining bytes of a frame from the underlying stream, which is not closed.
+     */
+    private static class FrameInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private FrameInputStream(final InputStream in, final long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final var b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of frame");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            final var read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of frame");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final var skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void skipRemaining() throws IOException {
+            while (remaining > 0) {
+                if (skip(remaining) == 0 && read() == -1) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs at most limit tasks at the same time on the underlying executor, without blocking its threads.
+     */
+    private static class LimitedExecutor implements Executor {
+
+        private final Executor executor;
+        private final int limit;
+        private final Queue<Runnable> pending = new ArrayDeque<>();
+        private int running = 0;
+
+        private LimitedExecutor(final Executor executor, final int limit) {
+            this.executor = executor;
+            this.limit = limit;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            synchronized (pending) {
+                if (running >= limit) {
+                    pending.add(command);
+                    return;
+                }
+                running++;
+            }
+            executor.execute(() -> run(command));
+        }
+
+        private void run(Runnable command) {
+            // The tasks are CompletableFuture tasks, which never throw
+            while (command != null) {
+                command.run();
+                synchronized (pending) {
+                    command = pending.poll();
+                    if (command == null) {
+                        running--;
+                    }
+                }
+            }
+        }
+    }
 }
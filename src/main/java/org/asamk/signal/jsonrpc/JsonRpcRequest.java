@@ -46,7 +46,7 @@ public class JsonRpcRequest extends JsonRpcMessage {
     private JsonRpcRequest() {
     }
 
-    private JsonRpcRequest(
+    JsonRpcRequest(
             final String jsonrpc, final String method, final ContainerNode<?> params, final ValueNode id
     ) {
         this.jsonrpc = jsonrpc;
@@ -16,6 +16,10 @@ public class JsonRpcSender {
         jsonWriter.write(request);
     }
 
+    public void sendNotification(String method, Object params) {
+        jsonWriter.write(new JsonRpcNotification(method, params));
+    }
+
     public void sendBulkRequests(List<JsonRpcRequest> requests) {
         jsonWriter.write(requests);
     }
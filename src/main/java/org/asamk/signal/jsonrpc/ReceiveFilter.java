@@ -0,0 +1,173 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.manager.UntrustedIdentityException;
+import org.asamk.signal.manager.groups.GroupUtils;
+import org.whispersystems.signalservice.api.messages.SignalServiceContent;
+import org.whispersystems.signalservice.api.messages.SignalServiceDataMessage;
+import org.whispersystems.signalservice.api.messages.SignalServiceEnvelope;
+import org.whispersystems.signalservice.api.push.SignalServiceAddress;
+
+import java.util.List;
+
+/**
+ * Filter of a receive subscription, unset criteria match every message.
+ * <p>
+ * The filter only looks at the decrypted envelope, so messages that don't match are dropped before the json output
+ * is built.
+ */
+public class ReceiveFilter {
+
+    public static final String TYPE_DATA_MESSAGE = "dataMessage";
+    public static final String TYPE_SYNC_MESSAGE = "syncMessage";
+    public static final String TYPE_CALL_MESSAGE = "callMessage";
+    public static final String TYPE_RECEIPT_MESSAGE = "receiptMessage";
+    public static final String TYPE_TYPING_MESSAGE = "typingMessage";
+    public static final String TYPE_ERROR = "error";
+    private static final List<String> TYPES = List.of(TYPE_DATA_MESSAGE,
+            TYPE_SYNC_MESSAGE,
+            TYPE_CALL_MESSAGE,
+            TYPE_RECEIPT_MESSAGE,
+            TYPE_TYPING_MESSAGE,
+            TYPE_ERROR);
+
+    /**
+     * Only messages received for this account, only used in multi account mode.
+     */
+    private String account;
+
+    /**
+     * Message types, see the TYPE_ constants.
+     */
+    @JsonProperty
+    private List<String> types;
+
+    /**
+     * Base64 encoded group ids, of received or sent (sync) group messages.
+     */
+    @JsonProperty
+    private List<String> groupIds;
+
+    /**
+     * Phone numbers or uuids of the senders.
+     */
+    @JsonProperty
+    private List<String> senders;
+
+    @JsonProperty
+    private Boolean hasAttachments;
+
+    public static ReceiveFilter all() {
+        return new ReceiveFilter();
+    }
+
+    void setAccount(final String account) {
+        this.account = account;
+    }
+
+    boolean hasValidTypes() {
+        return types == null || TYPES.containsAll(types);
+    }
+
+    public boolean matches(
+            final String account,
+            final Manager m,
+            final SignalServiceEnvelope envelope,
+            final SignalServiceContent content,
+            final Throwable exception
+    ) {
+        if (this.account != null && !this.account.equals(account)) {
+            return false;
+        }
+        if (types != null && types.stream().noneMatch(type -> hasType(type, envelope, content, exception))) {
+            return false;
+        }
+
+        final var dataMessage = getDataMessage(content);
+        if (groupIds != null) {
+            if (dataMessage == null || !dataMessage.getGroupContext().isPresent()) {
+                return false;
+            }
+            final var groupId = GroupUtils.getGroupId(dataMessage.getGroupContext().get()).toBase64();
+            if (!groupIds.contains(groupId)) {
+                return false;
+            }
+        }
+        if (hasAttachments != null) {
+            final var attachments = dataMessage == null ? null : dataMessage.getAttachments().orNull();
+            if (hasAttachments != (attachments != null && !attachments.isEmpty())) {
+                return false;
+            }
+        }
+        if (senders != null) {
+            final var sender = getSender(envelope, content, exception);
+            if (sender == null) {
+                return false;
+            }
+            final var address = m.resolveSignalServiceAddress(sender);
+            final var number = address.getNumber().orNull();
+            final var uuid = address.getUuid().toString();
+            if (!senders.contains(uuid) && (number == null || !senders.contains(number))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasType(
+            final String type,
+            final SignalServiceEnvelope envelope,
+            final SignalServiceContent content,
+            final Throwable exception
+    ) {
+        switch (type) {
+            case TYPE_DATA_MESSAGE:
+                return content != null && content.getDataMessage().isPresent();
+            case TYPE_SYNC_MESSAGE:
+                return content != null && content.getSyncMessage().isPresent();
+            case TYPE_CALL_MESSAGE:
+                return content != null && content.getCallMessage().isPresent();
+            case TYPE_RECEIPT_MESSAGE:
+                return (envelope != null && envelope.isReceipt()) || (
+                        content != null && content.getReceiptMessage().isPresent()
+                );
+            case TYPE_TYPING_MESSAGE:
+                return content != null && content.getTypingMessage().isPresent();
+            case TYPE_ERROR:
+                return exception != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The received data message or the data message that was sent by another linked device.
+     */
+    private static SignalServiceDataMessage getDataMessage(final SignalServiceContent content) {
+        if (content == null) {
+            return null;
+        }
+        if (content.getDataMessage().isPresent()) {
+            return content.getDataMessage().get();
+        }
+        if (content.getSyncMessage().isPresent() && content.getSyncMessage().get().getSent().isPresent()) {
+            return content.getSyncMessage().get().getSent().get().getMessage();
+        }
+        return null;
+    }
+
+    private static SignalServiceAddress getSender(
+            final SignalServiceEnvelope envelope, final SignalServiceContent content, final Throwable exception
+    ) {
+        if (envelope != null && !envelope.isUnidentifiedSender() && envelope.hasSourceUuid()) {
+            return envelope.getSourceAddress();
+        } else if (content != null) {
+            return content.getSender();
+        } else if (exception instanceof UntrustedIdentityException) {
+            return ((UntrustedIdentityException) exception).getSender();
+        }
+        return null;
+    }
+}
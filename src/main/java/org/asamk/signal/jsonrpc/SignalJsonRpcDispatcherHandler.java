@@ -0,0 +1,428 @@
+package org.asamk.signal.jsonrpc;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.asamk.signal.JsonReceiveMessageHandler;
+import org.asamk.signal.JsonWriter;
+import org.asamk.signal.OutputWriter;
+import org.asamk.signal.ReceiveMessageBroadcaster;
+import org.asamk.signal.ReceiveMessageQueue;
+import org.asamk.signal.WireFormat;
+import org.asamk.signal.commands.Commands;
+import org.asamk.signal.commands.JsonRpcCommand;
+import org.asamk.signal.commands.exceptions.CommandException;
+import org.asamk.signal.commands.exceptions.IOErrorException;
+import org.asamk.signal.commands.exceptions.UntrustedKeyErrorException;
+import org.asamk.signal.commands.exceptions.UserErrorException;
+import org.asamk.signal.manager.Manager;
+import org.asamk.signal.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles the JSON-RPC requests of one client connection and sends it the messages received for its accounts.
+ */
+public class SignalJsonRpcDispatcherHandler {
+
+    private final static Logger logger = LoggerFactory.getLogger(SignalJsonRpcDispatcherHandler.class);
+
+    public static final int USER_ERROR = -1;
+    public static final int IO_ERROR = -3;
+    public static final int UNTRUSTED_KEY_ERROR = -4;
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+    private static final int DEFAULT_RECEIVE_MAX_MESSAGES = 100;
+    private static final int DEFAULT_SUBSCRIPTION_ID = 0;
+    private static final int DEFAULT_RECEIVE_TIMEOUT = 5;
+    // Commands that change account wide state are run one at a time
+    private static final List<String> SERIAL_METHODS = List.of("updateAccount",
+            "updateConfiguration",
+            "updateProfile",
+            "setPin",
+            "removePin",
+            "uploadStickerPack");
+
+    private final ObjectMapper objectMapper;
+    private final JsonRpcSender jsonRpcSender;
+    private final InputStream input;
+    private final WireFormat wireFormat;
+    private final int maxConcurrentRequests;
+    private final Map<String, ReceiveMessageBroadcaster> receivers;
+    private final boolean multiAccount;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    // Receive filters by subscription id, the default subscription receives everything until the first "subscribe"
+    private final Map<Integer, ReceiveFilter> receiveFilters = new ConcurrentHashMap<>(Map.of(DEFAULT_SUBSCRIPTION_ID,
+            ReceiveFilter.all()));
+    private final AtomicInteger nextSubscriptionId = new AtomicInteger(DEFAULT_SUBSCRIPTION_ID + 1);
+    private String daemonId;
+
+    /**
+     * In multi account mode, requests select their account with an "account" parameter and received messages
+     * contain the account they were received for.
+     *
+     * @param wireFormat the encoding of the input, the json writer has to use the same encoding
+     * @param receivers the receivers of all accounts, by account number
+     */
+    public SignalJsonRpcDispatcherHandler(
+            final JsonWriter jsonWriter,
+            final InputStream input,
+            final WireFormat wireFormat,
+            final int maxConcurrentRequests,
+            final Map<String, ReceiveMessageBroadcaster> receivers,
+            final boolean multiAccount
+    ) {
+        this.objectMapper = Util.createJsonObjectMapper();
+        this.jsonRpcSender = new JsonRpcSender(jsonWriter);
+        this.input = input;
+        this.wireFormat = wireFormat;
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        this.receivers = receivers;
+        this.multiAccount = multiAccount;
+    }
+
+    /**
+     * The daemon id is returned by "listAccounts", so clients can verify they're connected to the daemon of their
+     * data directory.
+     */
+    public void setDaemonId(final String daemonId) {
+        this.daemonId = daemonId;
+    }
+
+    /**
+     * Sends the messages received for all accounts to the client as "receive" notifications.
+     * Clients can restrict the notifications with the "subscribe" and "unsubscribe" methods.
+     */
+    public void subscribeReceive() {
+        for (var entry : receivers.entrySet()) {
+            final var account = entry.getKey();
+            final var receiver = entry.getValue();
+            final var m = receiver.getManager();
+            final var jsonHandler = new JsonReceiveMessageHandler(m,
+                    s -> jsonRpcSender.sendNotification("receive", s),
+                    multiAccount ? account : null);
+            // Filter before the json handler, so filtered messages aren't converted at all
+            final Manager.ReceiveMessageHandler handler = (envelope, content, exception) -> {
+                if (receiveFilters.values()
+                        .stream()
+                        .anyMatch(filter -> filter.matches(account, m, envelope, content, exception))) {
+                    jsonHandler.handleMessage(envelope, content, exception);
+                }
+            };
+            receiver.addHandler(handler);
+            subscriptions.add(new Subscription(receiver, handler));
+        }
+    }
+
+    /**
+     * Handles requests until the end of the input is reached, then ends the receive subscriptions.
+     */
+    public void handleConnection() {
+        final var executor = new ThreadPoolExecutor(maxConcurrentRequests,
+                maxConcurrentRequests,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+
+        try {
+            final var jsonRpcReader = new JsonRpcReader(jsonRpcSender, input, wireFormat, executor);
+            for (var method : SERIAL_METHODS) {
+                jsonRpcReader.setMethodConcurrencyLimit(method, 1);
+            }
+            jsonRpcReader.setConversationKeyFunction(SignalJsonRpcDispatcherHandler::getConversationKey);
+            jsonRpcReader.readRequests(this::handleRequest,
+                    response -> logger.debug("Received unexpected response for id {}", response.getId()));
+        } finally {
+            for (var subscription : subscriptions) {
+                subscription.receiver.removeHandler(subscription.handler);
+            }
+            subscriptions.clear();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Requests for the same group or the same recipients are executed in order, e.g. to keep the message order.
+     */
+    private static Object getConversationKey(JsonRpcRequest request) {
+        final var params = request.getParams();
+        if (params == null || !params.isObject()) {
+            return null;
+        }
+
+        var groupId = params.get("groupId");
+        if (groupId == null) {
+            groupId = params.get("group-id");
+        }
+        if (groupId != null && !groupId.isNull()) {
+            return "group:" + groupId.asText();
+        }
+
+        var recipients = params.get("recipient");
+        if (recipients == null) {
+            recipients = params.get("recipients");
+        }
+        if (recipients != null && !recipients.isNull()) {
+            // A single recipient or the same recipients in a different order are the same conversation
+            final var identifiers = new TreeSet<String>();
+            if (recipients.isArray()) {
+                for (var recipient : recipients) {
+                    identifiers.add(recipient.asText());
+                }
+            } else {
+                identifiers.add(recipients.asText());
+            }
+            return identifiers;
+        }
+
+        return null;
+    }
+
+    private ReceiveMessageBroadcaster getReceiver(final ContainerNode<?> params) throws JsonRpcException {
+        final var account = params != null && params.isObject() ? params.get("account") : null;
+        if (account != null) {
+            // The account parameter is only used for routing, commands don't know it
+            ((ObjectNode) params).remove("account");
+            final var receiver = receivers.get(account.asText());
+            if (receiver == null) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                        "Specified account does not exist",
+                        null));
+            }
+            return receiver;
+        }
+
+        if (receivers.size() != 1) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    "Method requires valid account parameter",
+                    null));
+        }
+        return receivers.values().iterator().next();
+    }
+
+    private JsonNode handleRequest(final String method, ContainerNode<?> params) throws JsonRpcException {
+        final Object[] result = {null};
+        final JsonWriter commandOutputWriter = s -> {
+            if (result[0] != null) {
+                throw new AssertionError("Command may only write one json result");
+            }
+
+            result[0] = s;
+        };
+
+        if ("subscribe".equals(method)) {
+            return subscribe(params);
+        } else if ("unsubscribe".equals(method)) {
+            return unsubscribe(params);
+        } else if ("receive".equals(method)) {
+            return receive(params);
+        } else if ("ack".equals(method)) {
+            return ack(params);
+        } else if ("listAccounts".equals(method)) {
+            final var result = objectMapper.createObjectNode();
+            result.set("accounts", objectMapper.valueToTree(receivers.keySet()));
+            if (daemonId != null) {
+                result.put("daemonId", daemonId);
+            }
+            return result;
+        }
+
+        var command = Commands.getCommand(method);
+        if (!(command instanceof JsonRpcCommand)) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.METHOD_NOT_FOUND,
+                    "Method not implemented",
+                    null));
+        }
+
+        final var m = getReceiver(params).getManager();
+        try {
+            parseParamsAndRunCommand(m, params, commandOutputWriter, (JsonRpcCommand<?>) command);
+        } catch (JsonMappingException e) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_REQUEST,
+                    e.getMessage(),
+                    null));
+        } catch (UserErrorException e) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(USER_ERROR, e.getMessage(), null));
+        } catch (IOErrorException e) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(IO_ERROR, e.getMessage(), null));
+        } catch (UntrustedKeyErrorException e) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(UNTRUSTED_KEY_ERROR, e.getMessage(), null));
+        } catch (Throwable e) {
+            logger.error("Command execution failed", e);
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                    e.getMessage(),
+                    null));
+        }
+
+        Object output = result[0] == null ? Map.of() : result[0];
+        return objectMapper.valueToTree(output);
+    }
+
+    /**
+     * Adds a receive subscription with the filter given in the params.
+     * The first subscription replaces the default subscription to all messages.
+     */
+    private JsonNode subscribe(final ContainerNode<?> params) throws JsonRpcException {
+        String account = null;
+        if (params != null && params.isObject() && params.has("account")) {
+            account = params.get("account").asText();
+            ((ObjectNode) params).remove("account");
+            if (!receivers.containsKey(account)) {
+                throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                        "Specified account does not exist",
+                        null));
+            }
+        }
+
+        final ReceiveFilter filter;
+        try {
+            filter = params == null
+                    ? ReceiveFilter.all()
+                    : objectMapper.readerFor(ReceiveFilter.class).readValue((JsonNode) params);
+        } catch (JsonMappingException e) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    e.getMessage(),
+                    null));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        if (!filter.hasValidTypes()) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    "Invalid message type in types filter",
+                    null));
+        }
+        filter.setAccount(account);
+
+        final var subscriptionId = nextSubscriptionId.getAndIncrement();
+        receiveFilters.put(subscriptionId, filter);
+        if (subscriptionId == DEFAULT_SUBSCRIPTION_ID + 1) {
+            receiveFilters.remove(DEFAULT_SUBSCRIPTION_ID);
+        }
+        return objectMapper.valueToTree(Map.of("subscription", subscriptionId));
+    }
+
+    /**
+     * Removes the receive subscription given in the params, or all subscriptions if none is given.
+     */
+    private JsonNode unsubscribe(final ContainerNode<?> params) throws JsonRpcException {
+        final var subscription = params == null ? null : params.get("subscription");
+        if (subscription == null || subscription.isNull()) {
+            receiveFilters.clear();
+        } else if (!subscription.canConvertToInt() || receiveFilters.remove(subscription.asInt()) == null) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    "Unknown subscription",
+                    null));
+        }
+        return objectMapper.valueToTree(Map.of());
+    }
+
+    /**
+     * Fetches queued messages, waiting until "maxMessages" messages are available or "timeout" seconds have passed.
+     * The messages are delivered again, unless the returned batch is confirmed with "ack".
+     */
+    private JsonNode receive(final ContainerNode<?> params) throws JsonRpcException {
+        final var queue = getReceiver(params).getQueue();
+        final var maxMessages = getIntParam(params, "maxMessages", DEFAULT_RECEIVE_MAX_MESSAGES);
+        final var timeout = getIntParam(params, "timeout", DEFAULT_RECEIVE_TIMEOUT);
+        if (maxMessages < 1 || timeout < 0) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    "Invalid maxMessages or timeout",
+                    null));
+        }
+
+        final ReceiveMessageQueue.Batch batch;
+        try {
+            batch = queue.receive(maxMessages, timeout * 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INTERNAL_ERROR,
+                    "Interrupted while waiting for messages",
+                    null));
+        }
+
+        final var result = objectMapper.createObjectNode();
+        if (batch == null) {
+            result.putArray("messages");
+        } else {
+            result.put("batch", batch.getId());
+            result.set("messages", objectMapper.valueToTree(batch.getMessages()));
+        }
+        return result;
+    }
+
+    /**
+     * Confirms that the messages of a batch returned by "receive" have been processed.
+     */
+    private JsonNode ack(final ContainerNode<?> params) throws JsonRpcException {
+        final var queue = getReceiver(params).getQueue();
+        final var batch = params == null ? null : params.get("batch");
+        if (batch == null || !batch.canConvertToLong() || !queue.acknowledge(batch.asLong())) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    "Unknown batch, it may have been delivered again",
+                    null));
+        }
+        return objectMapper.valueToTree(Map.of());
+    }
+
+    private static int getIntParam(
+            final ContainerNode<?> params, final String name, final int defaultValue
+    ) throws JsonRpcException {
+        final var value = params == null ? null : params.get(name);
+        if (value == null || value.isNull()) {
+            return defaultValue;
+        }
+        if (!value.canConvertToInt()) {
+            throw new JsonRpcException(new JsonRpcResponse.Error(JsonRpcResponse.Error.INVALID_PARAMS,
+                    "Invalid " + name,
+                    null));
+        }
+        return value.asInt();
+    }
+
+    private <T> void parseParamsAndRunCommand(
+            final Manager m, final JsonNode params, final OutputWriter outputWriter, final JsonRpcCommand<T> command
+    ) throws CommandException, JsonMappingException {
+        T requestParams = null;
+        final var requestType = command.getRequestType();
+        if (params != null && requestType != null) {
+            try {
+                // Bind the already parsed params to the request type, without serializing them again
+                requestParams = objectMapper.readerFor(requestType).readValue(params);
+            } catch (JsonMappingException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        command.handleCommand(requestParams, m, outputWriter);
+    }
+
+    private static class Subscription {
+
+        private final ReceiveMessageBroadcaster receiver;
+        private final Manager.ReceiveMessageHandler handler;
+
+        private Subscription(
+                final ReceiveMessageBroadcaster receiver, final Manager.ReceiveMessageHandler handler
+        ) {
+            this.receiver = receiver;
+            this.handler = handler;
+        }
+    }
+}
@@ -29,4 +29,15 @@ public class IOUtils {
 
         return new File(new File(System.getProperty("user.home"), ".local"), "share");
     }
+
+    /**
+     * @param config the path given with --config, or null to use the default data directory
+     */
+    public static File getDataPath(String config) {
+        if (config != null) {
+            return new File(config);
+        }
+
+        return new File(getDataHomeDir(), "signal-cli");
+    }
 }
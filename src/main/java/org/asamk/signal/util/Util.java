@@ -2,6 +2,7 @@ package org.asamk.signal.util;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -64,7 +65,14 @@ public class Util {
     }
 
     public static ObjectMapper createJsonObjectMapper() {
-        var objectMapper = new ObjectMapper();
+        return createJsonObjectMapper(null);
+    }
+
+    /**
+     * @param jsonFactory the factory of a binary data format, or null for JSON text
+     */
+    public static ObjectMapper createJsonObjectMapper(JsonFactory jsonFactory) {
+        var objectMapper = new ObjectMapper(jsonFactory);
         objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.PUBLIC_ONLY);
         objectMapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
         return objectMapper;